@@ -0,0 +1,93 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BenchmarkDatabase is an in-memory H2 database in MySQL mode holding the tables used by the benchmarks.
+ * Each instance is a separate database, so trials do not share rows or pooled connections.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	private final String url;
+	/** keeps the in-memory database open while the benchmark runs */
+	private final Connection keepAlive;
+
+	BenchmarkDatabase() throws SQLException {
+		url = "jdbc:h2:mem:bench" + SEQUENCE.incrementAndGet() + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE";
+		keepAlive = DriverManager.getConnection(url, "sa", "");
+	}
+
+	/**
+	 * @return the connection attributes of the database as SSM passes them in the data map
+	 */
+	Map<String, Object> connectionData() {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("url", url);
+		data.put("username", "sa");
+		data.put("password", "");
+		data.put("drivername", "org.h2.Driver");
+		data.put("endpointId", url);
+		return data;
+	}
+
+	Connection connect() throws SQLException {
+		return DriverManager.getConnection(url, "sa", "");
+	}
+
+	/**
+	 * to create the accounts table of the provisioning queries
+	 */
+	void createAccounts(int rows) throws SQLException {
+		try (Statement stmt = keepAlive.createStatement()) {
+			stmt.execute("create table accounts(accountidentifier int auto_increment primary key, name varchar(50),"
+					+ " email varchar(50), status varchar(10))");
+		}
+		try (PreparedStatement stmt = keepAlive.prepareStatement("insert into accounts(name, email, status) values (?, ?, '1')")) {
+			for (int i = 0; i < rows; i++) {
+				stmt.setString(1, "account" + i);
+				stmt.setString(2, "account" + i + "@example.com");
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		}
+	}
+
+	/**
+	 * to create the recon table, columns c0 .. c(columns-1) hold short strings
+	 */
+	void createRecon(int columns, int rows) throws SQLException {
+		StringBuilder create = new StringBuilder("create table recon(id int primary key");
+		StringBuilder insert = new StringBuilder("insert into recon values(?");
+		for (int c = 0; c < columns; c++) {
+			create.append(", c").append(c).append(" varchar(64)");
+			insert.append(", ?");
+		}
+		try (Statement stmt = keepAlive.createStatement()) {
+			stmt.execute(create.append(')').toString());
+		}
+		try (PreparedStatement stmt = keepAlive.prepareStatement(insert.append(')').toString())) {
+			for (int r = 0; r < rows; r++) {
+				stmt.setInt(1, r);
+				for (int c = 0; c < columns; c++) {
+					stmt.setString(c + 2, "value" + c + "-" + r);
+				}
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		keepAlive.close();
+	}
+}
@@ -0,0 +1,77 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ConfigParseBenchmark parses ReconcileJSON and an operation JSON on every call, as the connector did before
+ * ConnectorConfigPlan, and looks them up in the cached plan of the endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigParseBenchmark {
+
+	@Param({ "3", "30" })
+	public int mapperSize;
+
+	private Map<String, Object> data;
+
+	@Setup
+	public void setUp() {
+		data = new HashMap<String, Object>();
+		data.put("endpointId", "1");
+		data.put("ACCOUNTNAME", "jdoe");
+		Map<String, Object> reconcile = new HashMap<String, Object>();
+		reconcile.put("query", "select * from accounts");
+		reconcile.put("mapper", ReconMappingBenchmark.mapper(10, mapperSize, "simple"));
+		data.put("ReconcileJSON", new JSONObject(reconcile).toString());
+		data.put("LockAccountJSON", "{'query':['update accounts set status=\\'0\\' where name=\\'${ACCOUNTNAME}\\'',"
+				+ "{'sql':'update accounts set email=? where name=?','params':['${EMAIL}','${ACCOUNTNAME}']}]}");
+	}
+
+	@Benchmark
+	public Map<String, Object> parseReconcileJson() {
+		return new JSONObject(data.get("ReconcileJSON").toString()).toMap();
+	}
+
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public ReconMapperPlan parseAndCompileMapper() {
+		Map<String, Object> reconcile = new JSONObject(data.get("ReconcileJSON").toString()).toMap();
+		return ReconMapperPlan.compile((Map<String, Object>) reconcile.get("mapper"));
+	}
+
+	@Benchmark
+	public ReconMapperPlan cachedMapperPlan() {
+		return ConnectorConfigPlan.forData(data).getRecon(ReconPlan.ACCOUNT).getMapperPlan();
+	}
+
+	@Benchmark
+	public List<ProvisioningQuery.Compiled> parseOperationJson() {
+		return ProvisioningQuery.compileAll(data.get("LockAccountJSON").toString());
+	}
+
+	@Benchmark
+	public List<ProvisioningQuery.Compiled> cachedOperationQueries() {
+		return ConnectorConfigPlan.forData(data).getQueries("LockAccountJSON");
+	}
+}
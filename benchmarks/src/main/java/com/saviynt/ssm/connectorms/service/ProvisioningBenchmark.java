@@ -0,0 +1,83 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ProvisioningBenchmark runs the operation queries of the connector (executeInputQuery through lockAccount,
+ * and bulkProvision) against an in-memory database, with plain query templates and with parameterized queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProvisioningBenchmark {
+
+	@Param({ "plain", "parameterized" })
+	public String queries;
+
+	@Param({ "100" })
+	public int bulkSize;
+
+	private BenchmarkDatabase database;
+	private MySQLDBExampleConnector connector;
+	private Map<String, Object> data;
+	private List<Map<String, Object>> bulk;
+	private int next;
+
+	@Setup
+	public void setUp() throws SQLException {
+		database = new BenchmarkDatabase();
+		database.createAccounts(1000);
+		connector = new MySQLDBExampleConnector();
+		data = database.connectionData();
+		if ("parameterized".equals(queries)) {
+			data.put("LockAccountJSON",
+					"{'query':[{'sql':'update accounts set status=\\'0\\' where name=?','params':['${ACCOUNTNAME}']}]}");
+		} else {
+			data.put("LockAccountJSON", "{'query':['update accounts set status=\\'0\\' where name=\\'${ACCOUNTNAME}\\'']}");
+		}
+		bulk = new ArrayList<Map<String, Object>>(bulkSize);
+		for (int i = 0; i < bulkSize; i++) {
+			Map<String, Object> item = new HashMap<String, Object>(data);
+			item.put("OPERATION", "LockAccountJSON");
+			item.put("ACCOUNTNAME", "account" + i);
+			bulk.add(item);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		database.close();
+	}
+
+	@Benchmark
+	public Map<?, ?> lockAccount() {
+		data.put("ACCOUNTNAME", "account" + (next++ % 1000));
+		return connector.lockAccount(new HashMap<String, Object>(), data);
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> bulkLockAccounts() {
+		return connector.bulkProvision(new HashMap<String, Object>(), bulk);
+	}
+}
@@ -0,0 +1,132 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ReconMappingBenchmark reads a recon query and maps every row with the mapper of ReconcileJSON the way
+ * getDataFromTableAndMatchProperties does, for different column counts, mapper sizes and template kinds :
+ * simple   : ${cN} references, evaluated natively
+ * concat   : ${cN}-${cM} literal text around references, evaluated natively
+ * groovy   : ${cN.toUpperCase()} expressions, rendered by Groovy through TemplateCache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReconMappingBenchmark {
+
+	@Param({ "5", "40" })
+	public int columns;
+
+	@Param({ "3", "15" })
+	public int mapperSize;
+
+	@Param({ "simple", "concat", "groovy" })
+	public String templates;
+
+	@Param({ "1000" })
+	public int rows;
+
+	private BenchmarkDatabase database;
+	private Connection con;
+	private ReconMapperPlan plan;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+		database = new BenchmarkDatabase();
+		database.createRecon(columns, rows);
+		con = database.connect();
+		plan = ReconMapperPlan.compile(mapper(columns, mapperSize, templates));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		con.close();
+		database.close();
+	}
+
+	/**
+	 * to build a mapper with entries spread over the accounts, account_attributes and account_entitlements keys
+	 */
+	static Map<String, Object> mapper(int columns, int mapperSize, String templates) {
+		Map<String, Object> mapper = new HashMap<String, Object>();
+		String[] mapperKeys = { "accounts", "account_attributes", "account_entitlements" };
+		for (int i = 0; i < mapperSize; i++) {
+			String column = "c" + (i % columns);
+			String source;
+			if ("groovy".equals(templates)) {
+				source = "${" + column + ".toUpperCase()}";
+			} else if ("concat".equals(templates)) {
+				source = "${" + column + "}-${c" + ((i + 1) % columns) + "}";
+			} else {
+				source = "${" + column + "}";
+			}
+			Map<String, String> entry = new HashMap<String, String>();
+			entry.put("saviyntproperty", "property" + i);
+			entry.put("sourceproperty", source);
+			@SuppressWarnings("unchecked")
+			List<Map<String, String>> entries = (List<Map<String, String>>) mapper
+					.computeIfAbsent(mapperKeys[i % mapperKeys.length], k -> new ArrayList<Map<String, String>>());
+			entries.add(entry);
+		}
+		return mapper;
+	}
+
+	@Benchmark
+	public long mapRows(Blackhole blackhole) throws Exception {
+		long rowCount = 0;
+		try (PreparedStatement stmt = new ReconQuery("select * from recon").prepare(con)) {
+			ResultSet rs = stmt.executeQuery();
+			ReconMapperPlan.Bound boundPlan = plan.bind(rs.getMetaData());
+			while (rs.next()) {
+				blackhole.consume(boundPlan.map(boundPlan.read(rs)));
+				rowCount++;
+			}
+		}
+		return rowCount;
+	}
+
+	/**
+	 * the query alone, to tell the driver cost from the mapping cost
+	 */
+	@Benchmark
+	public long readRows(Blackhole blackhole) throws Exception {
+		long rowCount = 0;
+		try (PreparedStatement stmt = new ReconQuery("select * from recon").prepare(con)) {
+			ResultSet rs = stmt.executeQuery();
+			int columnCount = rs.getMetaData().getColumnCount();
+			while (rs.next()) {
+				for (int i = 1; i <= columnCount; i++) {
+					blackhole.consume(rs.getString(i));
+				}
+				rowCount++;
+			}
+		}
+		return rowCount;
+	}
+}
@@ -0,0 +1,66 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.saviynt.ssm.abstractConnector.utility.GroovyService;
+
+/**
+ * TemplateRenderBenchmark renders one template of the connector JSON with GroovyService, which compiles the
+ * template on every call, with TemplateCache, and with a TemplateExpression parsed once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRenderBenchmark {
+
+	@Param({ "${ACCOUNTNAME}",
+			"update accounts set status='0' where name='${ACCOUNTNAME}' and email='${EMAIL}'",
+			"${ACCOUNTNAME.toUpperCase()}" })
+	public String template;
+
+	private Map<String, Object> binding;
+	private TemplateExpression expression;
+
+	@Setup
+	public void setUp() {
+		binding = new HashMap<String, Object>();
+		binding.put("ACCOUNTNAME", "jdoe");
+		binding.put("EMAIL", "jdoe@example.com");
+		for (int i = 0; i < 30; i++) {
+			binding.put("attribute" + i, "value" + i);
+		}
+		expression = TemplateExpression.compile(template);
+	}
+
+	@Benchmark
+	public String groovyService() throws Exception {
+		return GroovyService.convertTemplateToString(template, new HashMap<String, Object>(binding));
+	}
+
+	@Benchmark
+	public String templateCache() throws Exception {
+		return TemplateCache.render(template, new HashMap<String, Object>(binding));
+	}
+
+	@Benchmark
+	public String templateExpression() throws Exception {
+		return expression.evaluate(binding);
+	}
+}
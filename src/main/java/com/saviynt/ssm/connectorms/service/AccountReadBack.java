@@ -0,0 +1,107 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AccountReadBack reads back a created account to send its metadata (e.g. the generated accountidentifier mapped
+ * to customproperty1) to SSM, using the ACCOUNT entries of the ReconcileJSON mapper.
+ * The first read of an endpoint configuration selects every column of the account and learns which columns the
+ * mapper uses, later reads select only those columns. When the keys generated by the insert hold every column
+ * the mapper uses, the account is not read back at all.
+ * One read back is kept per endpoint configuration by ConnectorConfigPlan and shared by all threads.
+ */
+public final class AccountReadBack {
+
+	private static final String QUERY = "Select * from accounts where name = ? ";
+
+	private final ReconMapperPlan accountPlan;
+	/** the columns used by the mapper, learned by the first read */
+	private volatile List<String> columns;
+	private volatile String projectedQuery;
+
+	/**
+	 * @param mapperPlan the compiled mapper of ReconcileJSON
+	 */
+	public AccountReadBack(ReconMapperPlan mapperPlan) {
+		this.accountPlan = mapperPlan.select("ACCOUNT");
+	}
+
+	/**
+	 * to read back the mapped metadata of an account
+	 *
+	 * @param con the connection the account was created on
+	 * @param name the account name
+	 * @param generatedKeys the keys generated when the account was created, may be empty
+	 * @return the metadata e.g. {ACCOUNT.CUSTOMPROPERTY1=XXXX}, empty when the mapper has no ACCOUNT entry
+	 * @throws Exception
+	 */
+	public Map<String, Object> read(Connection con, String name, Map<String, Object> generatedKeys) throws Exception {
+		Map<String, Object> oneRowResultMap = new HashMap<String, Object>();
+		if (accountPlan.isEmpty()) {
+			return oneRowResultMap;
+		}
+		List<String> used = columns;
+		if (used != null && !generatedKeys.isEmpty()) {
+			String[] values = fromKeys(used, generatedKeys);
+			if (values != null) {
+				ReconMapperPlan.Bound boundPlan = accountPlan.bind(used.toArray(new String[0]));
+				oneRowResultMap.putAll(boundPlan.map(values).get(0));
+				return oneRowResultMap;
+			}
+		}
+		String query = projectedQuery;
+		try (PreparedStatement stmt = con.prepareStatement(query != null ? query : QUERY)) {
+			OperationDeadline.apply(stmt);
+			stmt.setString(1, name);
+			ResultSet rs = stmt.executeQuery();
+			ReconMapperPlan.Bound boundPlan = accountPlan.bind(rs.getMetaData());
+			if (query == null) {
+				learn(con, boundPlan.getFetchedLabels());
+			}
+			while (rs.next()) {
+				oneRowResultMap.putAll(boundPlan.map(boundPlan.read(rs)).get(0));
+			}
+		} catch (SQLException e) {
+			//the columns may have changed, the next read selects every column again
+			projectedQuery = null;
+			columns = null;
+			throw e;
+		}
+		return oneRowResultMap;
+	}
+
+	private void learn(Connection con, List<String> used) throws SQLException {
+		String quote = con.getMetaData().getIdentifierQuoteString();
+		quote = quote == null || quote.trim().isEmpty() ? "" : quote.trim();
+		StringBuilder selectList = new StringBuilder();
+		for (String column : used) {
+			selectList.append(selectList.length() > 0 ? ", " : "").append(quote).append(column).append(quote);
+		}
+		columns = used;
+		projectedQuery = "Select " + (used.isEmpty() ? "1" : selectList) + " from accounts where name = ? ";
+	}
+
+	/**
+	 * the values of the columns taken from the generated keys, null when a column is not a generated key
+	 */
+	private static String[] fromKeys(List<String> used, Map<String, Object> generatedKeys) {
+		Map<String, Object> keys = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+		keys.putAll(generatedKeys);
+		String[] values = new String[used.size()];
+		for (int i = 0; i < values.length; i++) {
+			if (!keys.containsKey(used.get(i))) {
+				return null;
+			}
+			Object value = keys.get(used.get(i));
+			values[i] = value != null ? value.toString() : null;
+		}
+		return values;
+	}
+}
@@ -0,0 +1,627 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConnectionPoolManager keeps one pool of JDBC connections per target endpoint so that provisioning
+ * and reconciliation calls do not pay the TCP, TLS and authentication handshake on every operation.
+ * Pools are keyed by the (url, username, drivername) connection attributes of the connector.
+ * Each pool honours a minimum and maximum size, validates connections when they are borrowed,
+ * and closes connections that stay idle longer than the configured idle timeout. The minimum size is
+ * opened in the background when the pool is created and kept by the reaper. Pools of endpoints that
+ * are not used for a while, or that fall out of the most recently used set, are closed once none of
+ * their connections is borrowed.
+ *
+ * Connections handed out by the pool are proxies : calling close() returns the physical connection
+ * to its pool instead of closing the socket, so callers keep the usual try/finally close() pattern.
+ *
+ * Each pooled connection also keeps a cache of prepared statements, see prepareCached().
+ *
+ * Pool settings are read from databaseconfig.properties :
+ * jdbc.pool.minSize, jdbc.pool.maxSize, jdbc.pool.idleTimeoutSeconds, jdbc.pool.validationTimeoutSeconds,
+ * jdbc.pool.borrowTimeoutSeconds, jdbc.pool.maxEndpoints, jdbc.pool.endpointIdleTimeoutSeconds and
+ * jdbc.statement.cacheSize. Properties prefixed with jdbc.mysql. (e.g. jdbc.mysql.useServerPrepStmts=true)
+ * are passed as connection properties when the driver is MySQL Connector/J. Properties prefixed with
+ * jdbc.recon.mysql. (e.g. jdbc.recon.mysql.useCursorFetch=true) are only passed to the connections of
+ * getReconConnection(), which are kept in a pool of their own so provisioning never gets a recon connection.
+ */
+public final class ConnectionPoolManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConnectionPoolManager.class);
+
+	private static final ConnectionPoolManager INSTANCE = new ConnectionPoolManager();
+
+	private final int minSize;
+	private final int maxSize;
+	private final long idleTimeoutMillis;
+	private final int validationTimeoutSeconds;
+	private final long borrowTimeoutMillis;
+	private final int maxEndpoints;
+	private final long endpointIdleTimeoutMillis;
+	private final int statementCacheSize;
+	private final Properties mysqlProperties = new Properties();
+	private final Properties reconMysqlProperties = new Properties();
+
+	/** pools in access order, the eldest entry is the least recently used endpoint */
+	private final LinkedHashMap<PoolKey, Pool> pools = new LinkedHashMap<PoolKey, Pool>(16, 0.75f, true);
+
+	private final ScheduledExecutorService reaper;
+
+	private ConnectionPoolManager() {
+		minSize = Math.max(0, ConnectorSettings.getInt("jdbc.pool.minSize", 0));
+		maxSize = Math.max(1, ConnectorSettings.getInt("jdbc.pool.maxSize", 10));
+		idleTimeoutMillis = TimeUnit.SECONDS.toMillis(ConnectorSettings.getInt("jdbc.pool.idleTimeoutSeconds", 300));
+		validationTimeoutSeconds = Math.max(1, ConnectorSettings.getInt("jdbc.pool.validationTimeoutSeconds", 5));
+		borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(ConnectorSettings.getInt("jdbc.pool.borrowTimeoutSeconds", 30));
+		maxEndpoints = Math.max(1, ConnectorSettings.getInt("jdbc.pool.maxEndpoints", 20));
+		endpointIdleTimeoutMillis = TimeUnit.SECONDS
+				.toMillis(ConnectorSettings.getInt("jdbc.pool.endpointIdleTimeoutSeconds", 1800));
+		statementCacheSize = Math.max(0, ConnectorSettings.getInt("jdbc.statement.cacheSize", 64));
+		Properties prop = ConnectorSettings.getProperties();
+		for (String name : prop.stringPropertyNames()) {
+			if (name.startsWith("jdbc.mysql.")) {
+				mysqlProperties.setProperty(name.substring("jdbc.mysql.".length()), prop.getProperty(name).trim());
+			} else if (name.startsWith("jdbc.recon.mysql.")) {
+				reconMysqlProperties.setProperty(name.substring("jdbc.recon.mysql.".length()),
+						prop.getProperty(name).trim());
+			}
+		}
+
+		reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "MySQLDBExampleConnector-pool-reaper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1000L, Math.min(idleTimeoutMillis, endpointIdleTimeoutMillis) / 2);
+		reaper.scheduleWithFixedDelay(this::reap, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * to get the shared pool manager
+	 *
+	 * @return the ConnectionPoolManager
+	 */
+	public static ConnectionPoolManager getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * to borrow a connection for the endpoint described by the connection attributes.
+	 * The returned connection must be closed by the caller, which hands it back to the pool.
+	 *
+	 * @param configData map holding drivername, url, username and password connection attributes
+	 * @return a validated pooled connection
+	 * @throws ClassNotFoundException when the driver class is not available
+	 * @throws SQLException when no connection can be obtained
+	 */
+	public Connection getConnection(Map<String, Object> configData) throws ClassNotFoundException, SQLException {
+		return getConnection(configData, false);
+	}
+
+	/**
+	 * to borrow a connection for reading a recon, with the jdbc.recon.mysql. connection properties.
+	 * The returned connection must be closed by the caller, which hands it back to the pool.
+	 *
+	 * @param configData map holding drivername, url, username and password connection attributes
+	 * @return a validated pooled connection
+	 * @throws ClassNotFoundException when the driver class is not available
+	 * @throws SQLException when no connection can be obtained
+	 */
+	public Connection getReconConnection(Map<String, Object> configData) throws ClassNotFoundException, SQLException {
+		return getConnection(configData, true);
+	}
+
+	private Connection getConnection(Map<String, Object> configData, boolean recon)
+			throws ClassNotFoundException, SQLException {
+		long start = System.nanoTime();
+		PoolKey key = new PoolKey(configData.get("url").toString(), configData.get("username").toString(),
+				configData.get("drivername").toString(), recon);
+		while (true) {
+			Pool pool;
+			boolean created = false;
+			List<Pool> evicted = new ArrayList<Pool>();
+			synchronized (pools) {
+				pool = pools.get(key);
+				if (pool == null) {
+					Class.forName(key.drivername);
+					pool = new Pool(key);
+					pools.put(key, pool);
+					created = true;
+					//only pools without borrowed connections are evicted, so an endpoint never exceeds maxSize
+					long now = System.currentTimeMillis();
+					Iterator<Pool> iterator = pools.values().iterator();
+					while (pools.size() > maxEndpoints && iterator.hasNext()) {
+						Pool eldest = iterator.next();
+						if (eldest != pool && eldest.retire(false, now)) {
+							iterator.remove();
+							evicted.add(eldest);
+						}
+					}
+				}
+			}
+			for (Pool eldest : evicted) {
+				logger.info("Evicting connection pool of least recently used endpoint " + eldest.key.url);
+				eldest.shutdown();
+			}
+			pool.setPassword(configData.get("password").toString());
+			if (created && minSize > 0) {
+				reaper.execute(pool::fill);
+			}
+			Connection con;
+			try {
+				con = pool.borrow();
+			} catch (PoolClosedException e) {
+				//the pool was retired by the reaper or evicted after it was looked up, the endpoint gets a new one
+				synchronized (pools) {
+					pools.remove(key, pool);
+				}
+				continue;
+			}
+			ConnectorMetrics.getInstance().recordConnectionAcquire(System.nanoTime() - start);
+			return con;
+		}
+	}
+
+	/**
+	 * to get a prepared statement for the sql from the statement cache of a pooled connection.
+	 * The statement stays open and cached with the connection, the caller must not close it and must clear
+	 * its batch and parameters after use. For a connection that does not come from the pool a new statement
+	 * is prepared and the caller must close it.
+	 *
+	 * @param con a connection from getConnection()
+	 * @param sql the sql with ? placeholders
+	 * @return the prepared statement
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepareCached(Connection con, String sql) throws SQLException {
+		if (!isCaching(con)) {
+			return con.prepareStatement(sql);
+		}
+		return ((ConnectionHandler) Proxy.getInvocationHandler(con)).prepareCached(sql);
+	}
+
+	/**
+	 * @return the most connections borrowed at once from the pool of an endpoint
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param con a connection
+	 * @return true when statements returned by prepareCached() for this connection are cached and must not be closed
+	 */
+	public boolean isCaching(Connection con) {
+		return statementCacheSize > 0 && Proxy.isProxyClass(con.getClass())
+				&& Proxy.getInvocationHandler(con) instanceof ConnectionHandler;
+	}
+
+	/**
+	 * to close every pooled connection of every endpoint
+	 */
+	public void shutdown() {
+		List<Pool> all;
+		synchronized (pools) {
+			all = new ArrayList<Pool>(pools.values());
+			pools.clear();
+		}
+		for (Pool pool : all) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * closes idle connections above the minimum size and drops pools of endpoints that went quiet
+	 */
+	private void reap() {
+		try {
+			long now = System.currentTimeMillis();
+			List<Pool> quiet = new ArrayList<Pool>();
+			List<Pool> active = new ArrayList<Pool>();
+			synchronized (pools) {
+				Iterator<Pool> iterator = pools.values().iterator();
+				while (iterator.hasNext()) {
+					Pool pool = iterator.next();
+					if (pool.retire(true, now)) {
+						iterator.remove();
+						quiet.add(pool);
+					} else {
+						active.add(pool);
+					}
+				}
+			}
+			for (Pool pool : quiet) {
+				logger.info("Closing connection pool of idle endpoint " + pool.key.url);
+				pool.shutdown();
+			}
+			for (Pool pool : active) {
+				pool.closeIdle(now);
+				pool.fill();
+			}
+		} catch (RuntimeException e) {
+			logger.error("Error while reaping idle connections " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * identity of a target endpoint, recon connections of an endpoint have their own pool
+	 */
+	private static final class PoolKey {
+		private final String url;
+		private final String username;
+		private final String drivername;
+		private final boolean recon;
+
+		private PoolKey(String url, String username, String drivername, boolean recon) {
+			this.url = url;
+			this.username = username;
+			this.drivername = drivername;
+			this.recon = recon;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof PoolKey)) {
+				return false;
+			}
+			PoolKey other = (PoolKey) o;
+			return url.equals(other.url) && username.equals(other.username) && drivername.equals(other.drivername)
+					&& recon == other.recon;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(url, username, drivername, recon);
+		}
+	}
+
+	/**
+	 * a physical connection with the time it was last handed back to the pool
+	 */
+	private final class PooledConnection {
+		private final Connection connection;
+		private long lastUsed;
+		/** prepared statements in access order, only used by the current borrower of the connection */
+		private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(
+				16, 0.75f, true);
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		private PreparedStatement prepareCached(String sql) throws SQLException {
+			PreparedStatement stmt = statements.get(sql);
+			if (stmt != null && !stmt.isClosed()) {
+				return stmt;
+			}
+			stmt = connection.prepareStatement(sql);
+			statements.put(sql, stmt);
+			if (statements.size() > statementCacheSize) {
+				Iterator<PreparedStatement> eldest = statements.values().iterator();
+				PreparedStatement evicted = eldest.next();
+				eldest.remove();
+				try {
+					evicted.close();
+				} catch (SQLException e) {
+					logger.debug("Error closing evicted statement " + e.getMessage());
+				}
+			}
+			return stmt;
+		}
+	}
+
+	/**
+	 * connections of one endpoint
+	 */
+	private final class Pool {
+		private final PoolKey key;
+		private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+		private int total;
+		private boolean closed;
+		private volatile String password;
+		private volatile long lastAccess = System.currentTimeMillis();
+
+		private Pool(PoolKey key) {
+			this.key = key;
+		}
+
+		private void setPassword(String password) {
+			this.password = password;
+		}
+
+		private Connection borrow() throws SQLException {
+			lastAccess = System.currentTimeMillis();
+			//the wait is bounded by the deadline of the operation borrowing the connection
+			long deadline = lastAccess + OperationDeadline.acquireTimeoutMillis(borrowTimeoutMillis);
+			while (true) {
+				PooledConnection candidate = null;
+				boolean create = false;
+				synchronized (this) {
+					while (!closed && idle.isEmpty() && total >= maxSize) {
+						long wait = deadline - System.currentTimeMillis();
+						if (wait <= 0) {
+							throw new SQLTimeoutException("Timed out waiting for a connection to " + key.url
+									+ " (pool size " + maxSize + ")");
+						}
+						try {
+							wait(wait);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new SQLException("Interrupted while waiting for a connection to " + key.url, e);
+						}
+					}
+					if (closed) {
+						throw new PoolClosedException("Connection pool for " + key.url + " is closed");
+					}
+					if (!idle.isEmpty()) {
+						candidate = idle.pollFirst();
+					} else {
+						total++;
+						create = true;
+					}
+				}
+				if (create) {
+					try {
+						return wrap(new PooledConnection(connect()));
+					} catch (SQLException | RuntimeException e) {
+						discard(null);
+						throw e;
+					}
+				}
+				if (isValid(candidate)) {
+					return wrap(candidate);
+				}
+				logger.debug("Discarding invalid pooled connection to " + key.url);
+				discard(candidate);
+			}
+		}
+
+		private Connection connect() throws SQLException {
+			Properties info = new Properties();
+			if (key.drivername.toLowerCase().contains("mysql")) {
+				info.putAll(mysqlProperties);
+				if (key.recon) {
+					info.putAll(reconMysqlProperties);
+				}
+			}
+			info.setProperty("user", key.username);
+			info.setProperty("password", password);
+			return DriverManager.getConnection(key.url, info);
+		}
+
+		private boolean isValid(PooledConnection candidate) {
+			try {
+				return !candidate.connection.isClosed() && candidate.connection.isValid(validationTimeoutSeconds);
+			} catch (SQLException e) {
+				return false;
+			}
+		}
+
+		private void release(PooledConnection pooled) {
+			boolean reusable;
+			try {
+				if (!pooled.connection.getAutoCommit()) {
+					pooled.connection.rollback();
+					pooled.connection.setAutoCommit(true);
+				}
+				reusable = !pooled.connection.isClosed();
+			} catch (SQLException e) {
+				logger.debug("Discarding pooled connection to " + key.url + " " + e.getMessage());
+				reusable = false;
+			}
+			if (!reusable) {
+				discard(pooled);
+				return;
+			}
+			pooled.lastUsed = System.currentTimeMillis();
+			boolean keep;
+			synchronized (this) {
+				keep = !closed;
+				if (keep) {
+					idle.addFirst(pooled);
+					notifyAll();
+				}
+			}
+			if (!keep) {
+				discard(pooled);
+			}
+		}
+
+		private void discard(PooledConnection pooled) {
+			synchronized (this) {
+				total--;
+				notifyAll();
+			}
+			if (pooled != null) {
+				closeQuietly(pooled.connection);
+			}
+		}
+
+		/**
+		 * to close the pool when none of its connections is borrowed, borrowers of a retired pool look it up again
+		 *
+		 * @param quietOnly true to retire the pool only when it was not used for endpointIdleTimeoutMillis
+		 * @return true when the pool is retired
+		 */
+		private boolean retire(boolean quietOnly, long now) {
+			synchronized (this) {
+				if (idle.size() != total || (quietOnly && now - lastAccess <= endpointIdleTimeoutMillis)) {
+					return false;
+				}
+				closed = true;
+				return true;
+			}
+		}
+
+		/**
+		 * opens connections until the pool holds minSize of them
+		 */
+		private void fill() {
+			while (true) {
+				synchronized (this) {
+					if (closed || total >= minSize) {
+						return;
+					}
+					total++;
+				}
+				PooledConnection pooled;
+				try {
+					pooled = new PooledConnection(connect());
+				} catch (SQLException | RuntimeException e) {
+					discard(null);
+					logger.info("Unable to open the minimum connections to " + key.url + " " + e.getMessage());
+					return;
+				}
+				boolean keep;
+				synchronized (this) {
+					keep = !closed;
+					if (keep) {
+						idle.addLast(pooled);
+						notifyAll();
+					}
+				}
+				if (!keep) {
+					discard(pooled);
+				}
+			}
+		}
+
+		private void closeIdle(long now) {
+			List<PooledConnection> expired = new ArrayList<PooledConnection>();
+			synchronized (this) {
+				// idle connections are kept most recently used first, so expired ones are at the tail
+				while (total - expired.size() > minSize && !idle.isEmpty()
+						&& now - idle.peekLast().lastUsed > idleTimeoutMillis) {
+					expired.add(idle.pollLast());
+				}
+			}
+			for (PooledConnection pooled : expired) {
+				discard(pooled);
+			}
+		}
+
+		private void shutdown() {
+			List<PooledConnection> toClose;
+			synchronized (this) {
+				closed = true;
+				toClose = new ArrayList<PooledConnection>(idle);
+				idle.clear();
+				notifyAll();
+			}
+			for (PooledConnection pooled : toClose) {
+				discard(pooled);
+			}
+		}
+
+		private Connection wrap(PooledConnection pooled) {
+			return (Connection) Proxy.newProxyInstance(ConnectionPoolManager.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new ConnectionHandler(this, pooled));
+		}
+	}
+
+	/**
+	 * returns the physical connection to its pool when the borrowed connection is closed
+	 */
+	private static final class ConnectionHandler implements InvocationHandler {
+		private final Pool pool;
+		private final PooledConnection pooled;
+		private boolean released;
+
+		private ConnectionHandler(Pool pool, PooledConnection pooled) {
+			this.pool = pool;
+			this.pooled = pooled;
+		}
+
+		private PreparedStatement prepareCached(String sql) throws SQLException {
+			synchronized (this) {
+				if (released) {
+					throw new SQLException("Connection has been returned to the pool");
+				}
+			}
+			return pooled.prepareCached(sql);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name) && method.getParameterCount() == 0) {
+				synchronized (this) {
+					if (released) {
+						return null;
+					}
+					released = true;
+				}
+				pool.release(pooled);
+				return null;
+			}
+			if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+				synchronized (this) {
+					if (released) {
+						return true;
+					}
+				}
+			} else if ("equals".equals(name) && method.getParameterCount() == 1) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name) && method.getParameterCount() == 0) {
+				return System.identityHashCode(proxy);
+			} else {
+				synchronized (this) {
+					if (released) {
+						throw new SQLException("Connection has been returned to the pool");
+					}
+				}
+			}
+			try {
+				return method.invoke(pooled.connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * borrowing from a pool closed after it was looked up
+	 */
+	private static final class PoolClosedException extends SQLException {
+		private static final long serialVersionUID = 1L;
+
+		private PoolClosedException(String reason) {
+			super(reason);
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			logger.debug("Error closing connection " + e.getMessage());
+		}
+	}
+}
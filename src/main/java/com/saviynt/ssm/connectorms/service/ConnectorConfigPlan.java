@@ -0,0 +1,164 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+/**
+ * ConnectorConfigPlan is the JSON configuration of an endpoint (ReconcileJSON, CreateAccountJSON, ...) parsed once
+ * and kept across calls, so provisioning and recon calls do not parse the same JSON again.
+ * Plans are cached per endpoint and checked against the configuration of every call : a hash over the text of
+ * all xxxJSON attributes is compared first and the texts themselves when the hashes match. When the configuration
+ * of the endpoint has changed a new plan replaces the cached one.
+ * A plan never changes once built, each part is parsed on first use (so a malformed JSON only fails the
+ * calls that use it) and then shared by all threads.
+ */
+public final class ConnectorConfigPlan {
+
+	private static final int MAX_PLANS = 256;
+	private static final ConcurrentHashMap<String, ConnectorConfigPlan> PLANS = new ConcurrentHashMap<String, ConnectorConfigPlan>();
+
+	/** text of each xxxJSON attribute */
+	private final Map<String, String> sources;
+	private final long contentHash;
+	private final ConcurrentHashMap<String, List<ProvisioningQuery.Compiled>> queries = new ConcurrentHashMap<String, List<ProvisioningQuery.Compiled>>();
+	private final ConcurrentHashMap<String, Long> timeouts = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentHashMap<String, ReconPlan> recons = new ConcurrentHashMap<String, ReconPlan>();
+	private volatile AccountReadBack accountReadBack;
+
+	private ConnectorConfigPlan(Map<String, String> sources, long contentHash) {
+		this.sources = sources;
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * to get the plan of the configuration in the data map of a call
+	 *
+	 * @param data the data map of a provisioning or recon call
+	 * @return the cached plan when the configuration is unchanged, otherwise a new plan
+	 */
+	public static ConnectorConfigPlan forData(Map<String, Object> data) {
+		String endpoint = endpointKey(data);
+		long hash = contentHash(data);
+		ConnectorConfigPlan plan = PLANS.get(endpoint);
+		if (plan != null && plan.matches(data, hash)) {
+			return plan;
+		}
+		Map<String, String> sources = new HashMap<String, String>();
+		for (Map.Entry<String, Object> entry : data.entrySet()) {
+			if (isConfiguration(entry)) {
+				sources.put(entry.getKey(), entry.getValue().toString());
+			}
+		}
+		plan = new ConnectorConfigPlan(sources, hash);
+		if (PLANS.size() >= MAX_PLANS && !PLANS.containsKey(endpoint)) {
+			PLANS.clear();
+		}
+		PLANS.put(endpoint, plan);
+		return plan;
+	}
+
+	/**
+	 * @param data the data map of a call
+	 * @return the key of the endpoint of the call, its endpointId or else its url and username
+	 */
+	static String endpointKey(Map<String, Object> data) {
+		Object endpointId = data.get("endpointId");
+		if (endpointId != null) {
+			return endpointId.toString();
+		}
+		return data.get("url") + "|" + data.get("username");
+	}
+
+	private static boolean isConfiguration(Map.Entry<String, Object> entry) {
+		return entry.getKey() != null && entry.getKey().endsWith("JSON") && entry.getValue() != null;
+	}
+
+	private static long contentHash(Map<String, Object> data) {
+		long hash = 0;
+		for (Map.Entry<String, Object> entry : data.entrySet()) {
+			if (isConfiguration(entry)) {
+				//order independent, the data map may iterate its keys in any order
+				long h = entry.getKey().hashCode() * 0x9E3779B97F4A7C15L + entry.getValue().toString().hashCode();
+				hash += h ^ (h >>> 29);
+			}
+		}
+		return hash;
+	}
+
+	private boolean matches(Map<String, Object> data, long hash) {
+		if (hash != contentHash) {
+			return false;
+		}
+		int count = 0;
+		for (Map.Entry<String, Object> entry : data.entrySet()) {
+			if (isConfiguration(entry)) {
+				count++;
+				if (!entry.getValue().toString().equals(sources.get(entry.getKey()))) {
+					return false;
+				}
+			}
+		}
+		return count == sources.size();
+	}
+
+	/**
+	 * @param key the JSON attribute e.g. CreateAccountJSON
+	 * @return true when the configuration has the attribute
+	 */
+	public boolean has(String key) {
+		return sources.containsKey(key);
+	}
+
+	/**
+	 * @param key the operation JSON attribute e.g. CreateAccountJSON
+	 * @return the parsed entries of its query array, empty when the attribute is not configured
+	 */
+	public List<ProvisioningQuery.Compiled> getQueries(String key) {
+		String source = sources.get(key);
+		if (source == null) {
+			return Collections.emptyList();
+		}
+		return queries.computeIfAbsent(key, k -> ProvisioningQuery.compileAll(source));
+	}
+
+	/**
+	 * @param key the operation JSON attribute e.g. CreateAccountJSON
+	 * @return the deadline of the operation, timeoutSeconds of the JSON and otherwise
+	 *         jdbc.provisioning.timeoutSeconds in databaseconfig.properties, 0 for no limit
+	 */
+	public long getTimeoutMillis(String key) {
+		return timeouts.computeIfAbsent(key, k -> {
+			String source = sources.get(k);
+			Object configured = source != null ? new JSONObject(source).opt("timeoutSeconds") : null;
+			long seconds = configured != null ? Long.parseLong(configured.toString().trim())
+					: ConnectorSettings.getInt("jdbc.provisioning.timeoutSeconds", 120);
+			return TimeUnit.SECONDS.toMillis(Math.max(0, seconds));
+		});
+	}
+
+	/**
+	 * @param importableObject ACCOUNT, USER or ENTITLEMENT
+	 * @return the recon configuration of the importable object
+	 */
+	public ReconPlan getRecon(String importableObject) {
+		return recons.computeIfAbsent(importableObject, k -> ReconPlan.compile(k, sources));
+	}
+
+	/**
+	 * @return the read back of created accounts, with the mapper of ReconcileJSON
+	 */
+	public AccountReadBack getAccountReadBack() {
+		AccountReadBack readBack = accountReadBack;
+		if (readBack == null) {
+			readBack = new AccountReadBack(getRecon(ReconPlan.ACCOUNT).getMapperPlan());
+			accountReadBack = readBack;
+		}
+		return readBack;
+	}
+}
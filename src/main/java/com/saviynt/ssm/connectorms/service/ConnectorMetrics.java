@@ -0,0 +1,341 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConnectorMetrics collects the performance metrics of the connector returned by getSummary() :
+ * call count, error count and latency percentiles of every connector operation, rows read, mapped and notified
+ * by recon, connection acquire times, provisioning commits and the hit ratio of the template cache.
+ * Counters are LongAdders and latencies go to fixed bucket histograms updated with atomic increments, so
+ * recording never takes a lock. Metrics are kept for the lifetime of the connector class.
+ *
+ * Operations are timed with a sample closed when the operation ends :
+ * ConnectorMetrics.Sample sample = ConnectorMetrics.start("CreateAccountJSON");
+ * try {
+ *     ...
+ *     sample.succeeded();
+ * } finally {
+ *     sample.close();
+ * }
+ * A sample closed without succeeded() is counted as an error.
+ */
+public final class ConnectorMetrics {
+
+	private static final ConnectorMetrics INSTANCE = new ConnectorMetrics();
+
+	private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+	private final LatencyHistogram connectionAcquire = new LatencyHistogram();
+	private final LatencyHistogram commits = new LatencyHistogram();
+	private final LongAdder transactionStatements = new LongAdder();
+	private final LongAdder rollbacks = new LongAdder();
+	private final LongAdder autoCommitStatements = new LongAdder();
+	private final LongAdder recons = new LongAdder();
+	private final LongAdder rowsRead = new LongAdder();
+	private final LongAdder rowsMapped = new LongAdder();
+	private final LongAdder rowsNotified = new LongAdder();
+	private final LongAdder projectedRecons = new LongAdder();
+	private final LongAdder skippedColumns = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+	/** recon name (endpoint id, endpointId_USER or endpointId_ENTITLEMENT) to the counts of its last recon */
+	private final ConcurrentHashMap<String, Map<String, Object>> lastRecons = new ConcurrentHashMap<String, Map<String, Object>>();
+
+	private ConnectorMetrics() {
+	}
+
+	/**
+	 * @return the metrics of the connector
+	 */
+	public static ConnectorMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * to start timing an operation
+	 *
+	 * @param operation the operation name e.g. CreateAccountJSON, bulkProvision or reconcile
+	 * @return the sample to close when the operation ends
+	 */
+	public static Sample start(String operation) {
+		return new Sample(INSTANCE.operations.computeIfAbsent(operation, k -> new OperationStats()));
+	}
+
+	/**
+	 * @param nanos time taken to get a connection from the pool, including opening a new connection
+	 */
+	public void recordConnectionAcquire(long nanos) {
+		connectionAcquire.record(nanos);
+	}
+
+	/**
+	 * to record the commit of a provisioning transaction
+	 *
+	 * @param statements the statements of the transaction
+	 * @param nanos time taken by the commit
+	 */
+	public void recordCommit(int statements, long nanos) {
+		commits.record(nanos);
+		transactionStatements.add(statements);
+	}
+
+	/**
+	 * to count a rolled back provisioning transaction
+	 */
+	public void recordRollback() {
+		rollbacks.increment();
+	}
+
+	/**
+	 * @param statements provisioning statements executed in auto commit mode, each one committed on its own
+	 */
+	public void recordAutoCommit(int statements) {
+		autoCommitStatements.add(statements);
+	}
+
+	/**
+	 * to count the rows of one recon query
+	 *
+	 * @param read rows read from the target system
+	 */
+	public void recordRows(long read) {
+		rowsRead.add(read);
+	}
+
+	/**
+	 * to count the rows a recon mapped to SSM properties, finished or not
+	 *
+	 * @param mapped rows built by the mapper
+	 */
+	public void recordMappedRows(long mapped) {
+		rowsMapped.add(mapped);
+	}
+
+	/**
+	 * to record a finished recon
+	 *
+	 * @param reconName the recon name, see ReconPlan.reconName()
+	 * @param read rows read from the target system
+	 * @param mapped rows mapped to SSM properties
+	 * @param notified rows notified to SSM
+	 * @param nanos duration of the recon
+	 */
+	public void recordRecon(String reconName, long read, long mapped, long notified, long nanos) {
+		recons.increment();
+		rowsNotified.add(notified);
+		Map<String, Object> last = new TreeMap<String, Object>();
+		last.put("rowsRead", read);
+		last.put("rowsMapped", mapped);
+		last.put("rowsNotified", notified);
+		last.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(nanos));
+		last.put("finishedAt", System.currentTimeMillis());
+		lastRecons.put(reconName, last);
+	}
+
+	/**
+	 * to record a recon whose query was rewritten to read the columns used only
+	 *
+	 * @param columns the columns the recon did not read
+	 * @param bytes the estimated bytes the recon did not read
+	 */
+	public void recordProjection(int columns, long bytes) {
+		projectedRecons.increment();
+		skippedColumns.add(columns);
+		bytesSaved.add(bytes);
+	}
+
+	/**
+	 * @return a snapshot of all metrics :
+	 *         {operations={CreateAccountJSON={calls=.., errors=.., meanMillis=.., p50Millis=.., p99Millis=.., maxMillis=..}},
+	 *          recon={recons=.., rowsRead=.., rowsMapped=.., rowsNotified=.., lastRecon={reconName={..}},
+	 *                 projection={recons=.., skippedColumns=.., estimatedBytesSaved=..}},
+	 *          connectionAcquire={count=.., meanMillis=.., p50Millis=.., p99Millis=.., maxMillis=..},
+	 *          transactions={commits=.., statements=.., statementsPerCommit=.., rollbacks=.., autoCommitStatements=..,
+	 *                        commitLatency={count=.., meanMillis=.., p50Millis=.., p99Millis=.., maxMillis=..}},
+	 *          endpoints={endpoint={state=CLOSED, limit=.., inFlight=.., rejected=..}},
+	 *          replicas={endpoint={replicas=.., inSync=.., replicaReads=.., primaryFallbacks=..}},
+	 *          templateCache={hits=.., misses=.., hitRatio=.., evictions=.., size=..}}
+	 */
+	public Map<String, Object> snapshot() {
+		Map<String, Object> summary = new TreeMap<String, Object>();
+
+		Map<String, Object> operationSummary = new TreeMap<String, Object>();
+		for (Map.Entry<String, OperationStats> operation : operations.entrySet()) {
+			Map<String, Object> stats = operation.getValue().latency.snapshot();
+			stats.remove("count");
+			stats.put("calls", operation.getValue().calls.sum());
+			stats.put("errors", operation.getValue().errors.sum());
+			operationSummary.put(operation.getKey(), stats);
+		}
+		summary.put("operations", operationSummary);
+
+		Map<String, Object> recon = new TreeMap<String, Object>();
+		recon.put("recons", recons.sum());
+		recon.put("rowsRead", rowsRead.sum());
+		recon.put("rowsMapped", rowsMapped.sum());
+		recon.put("rowsNotified", rowsNotified.sum());
+		recon.put("lastRecon", new TreeMap<String, Object>(lastRecons));
+		Map<String, Object> projection = new TreeMap<String, Object>();
+		projection.put("recons", projectedRecons.sum());
+		projection.put("skippedColumns", skippedColumns.sum());
+		projection.put("estimatedBytesSaved", bytesSaved.sum());
+		recon.put("projection", projection);
+		summary.put("recon", recon);
+
+		summary.put("connectionAcquire", connectionAcquire.snapshot());
+
+		Map<String, Object> transactions = new TreeMap<String, Object>();
+		Map<String, Object> commitLatency = commits.snapshot();
+		long commitCount = ((Number) commitLatency.get("count")).longValue();
+		long statements = transactionStatements.sum();
+		transactions.put("commits", commitCount);
+		transactions.put("statements", statements);
+		transactions.put("statementsPerCommit", commitCount == 0 ? 0d : (double) statements / commitCount);
+		transactions.put("rollbacks", rollbacks.sum());
+		transactions.put("autoCommitStatements", autoCommitStatements.sum());
+		transactions.put("commitLatency", commitLatency);
+		summary.put("transactions", transactions);
+
+		summary.put("endpoints", EndpointGuard.snapshot());
+		summary.put("replicas", ReplicaRouter.snapshot());
+
+		TemplateCache templateCache = TemplateCache.getInstance();
+		Map<String, Object> templates = new TreeMap<String, Object>();
+		long hits = templateCache.getHits();
+		long misses = templateCache.getMisses();
+		templates.put("hits", hits);
+		templates.put("misses", misses);
+		templates.put("hitRatio", hits + misses == 0 ? 0d : (double) hits / (hits + misses));
+		templates.put("evictions", templateCache.getEvictions());
+		templates.put("size", templateCache.size());
+		summary.put("templateCache", templates);
+		return summary;
+	}
+
+	/**
+	 * Sample is the timing of one operation call
+	 */
+	public static final class Sample implements AutoCloseable {
+
+		private final OperationStats stats;
+		private final long start = System.nanoTime();
+		private boolean succeeded;
+
+		private Sample(OperationStats stats) {
+			this.stats = stats;
+		}
+
+		/**
+		 * to mark the operation as succeeded
+		 */
+		public void succeeded() {
+			succeeded = true;
+		}
+
+		/**
+		 * to mark the operation as succeeded
+		 *
+		 * @param result the result of the operation
+		 * @return result
+		 */
+		public <T> T succeeded(T result) {
+			succeeded = true;
+			return result;
+		}
+
+		@Override
+		public void close() {
+			stats.calls.increment();
+			if (!succeeded) {
+				stats.errors.increment();
+			}
+			stats.latency.record(System.nanoTime() - start);
+		}
+	}
+
+	private static final class OperationStats {
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+	}
+
+	/**
+	 * LatencyHistogram counts latencies in microseconds into log linear buckets : values below 16 have their own
+	 * bucket, larger values are split in 8 buckets per power of two, so percentiles are within 12.5 percent.
+	 */
+	static final class LatencyHistogram {
+
+		private static final int SUB_BUCKETS = 8;
+		private static final int LINEAR = 16;
+		/** up to 2^40 micro seconds */
+		private static final int BUCKETS = LINEAR + (40 - 4) * SUB_BUCKETS;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalMicros = new LongAdder();
+		private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+		void record(long nanos) {
+			long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+			counts.incrementAndGet(bucket(micros));
+			count.increment();
+			totalMicros.add(micros);
+			maxMicros.accumulate(micros);
+		}
+
+		private static int bucket(long micros) {
+			if (micros < LINEAR) {
+				return (int) micros;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(micros);
+			int sub = (int) (micros >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+			return Math.min(BUCKETS - 1, LINEAR + (exponent - 4) * SUB_BUCKETS + sub);
+		}
+
+		/** the largest value of a bucket */
+		private static long upperBound(int bucket) {
+			if (bucket < LINEAR) {
+				return bucket;
+			}
+			int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+			int sub = (bucket - LINEAR) % SUB_BUCKETS;
+			return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+		}
+
+		long percentileMicros(double percentile) {
+			long[] snapshot = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				snapshot[i] = counts.get(i);
+				total += snapshot[i];
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(percentile / 100 * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += snapshot[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), maxMicros.get());
+				}
+			}
+			return maxMicros.get();
+		}
+
+		Map<String, Object> snapshot() {
+			Map<String, Object> snapshot = new TreeMap<String, Object>();
+			long n = count.sum();
+			snapshot.put("count", n);
+			snapshot.put("meanMillis", n == 0 ? 0d : totalMicros.sum() / 1000d / n);
+			snapshot.put("p50Millis", percentileMicros(50) / 1000d);
+			snapshot.put("p99Millis", percentileMicros(99) / 1000d);
+			snapshot.put("maxMillis", maxMicros.get() / 1000d);
+			return snapshot;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConnectorSettings holds databaseconfig.properties, read once from the classpath when the connector is loaded
+ * instead of on every query.
+ */
+public final class ConnectorSettings {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConnectorSettings.class);
+
+	private static final Properties PROPERTIES = load();
+
+	private static final int BATCH_SIZE = batchSizeSetting();
+
+	private static final int BULK_CHUNK_SIZE = Math.max(1, getInt("jdbc.bulk.chunkSize", 500));
+
+	private ConnectorSettings() {
+	}
+
+	private static Properties load() {
+		Properties prop = new Properties();
+		try (InputStream input = ConnectorSettings.class.getClassLoader()
+				.getResourceAsStream("databaseconfig.properties")) {
+			if (input == null) {
+				logger.error("unable to find databaseconfig.properties");
+			} else {
+				prop.load(input);
+			}
+		} catch (IOException ex) {
+			logger.error("unable to read databaseconfig.properties " + ex.getMessage(), ex);
+		}
+		return prop;
+	}
+
+	private static int batchSizeSetting() {
+		int batchSize = getInt("jdbc.batch.size", 0);
+		return batchSize <= 0 ? Integer.MIN_VALUE : batchSize;
+	}
+
+	/**
+	 * @return jdbc.batch.size, the fetch size of recon queries, or Integer.MIN_VALUE when it is not positive
+	 */
+	public static int getBatchSize() {
+		return BATCH_SIZE;
+	}
+
+	/**
+	 * @return jdbc.bulk.chunkSize, the number of bulkProvision items executed as one JDBC batch, 500 by default
+	 */
+	public static int getBulkChunkSize() {
+		return BULK_CHUNK_SIZE;
+	}
+
+	/**
+	 * @return a copy of all settings
+	 */
+	public static Properties getProperties() {
+		Properties copy = new Properties();
+		copy.putAll(PROPERTIES);
+		return copy;
+	}
+
+	/**
+	 * @param name the property name
+	 * @param defaultValue value used when the property is missing
+	 * @return the property value
+	 */
+	public static String getString(String name, String defaultValue) {
+		String value = PROPERTIES.getProperty(name);
+		return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+	}
+
+	/**
+	 * @param name the property name
+	 * @param defaultValue value used when the property is missing or invalid
+	 * @return the property value
+	 */
+	public static int getInt(String name, int defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value " + value + " for " + name + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @param name the property name
+	 * @param defaultValue value used when the property is missing
+	 * @return the property value
+	 */
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		String value = getString(name, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+}
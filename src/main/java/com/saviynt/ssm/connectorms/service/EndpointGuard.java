@@ -0,0 +1,346 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.saviynt.ssm.abstractConnector.exceptions.ConnectorException;
+import com.saviynt.ssm.abstractConnector.exceptions.OperationTimeoutException;
+
+/**
+ * EndpointGuard protects one target endpoint from the calls of the connector when it slows down or fails, so
+ * that calls fail fast with a ConnectorException instead of queueing on the endpoint and holding SSM threads.
+ * Concurrency limiter : at most limit provisioning calls run at once on the endpoint, further calls wait for a
+ * slot up to jdbc.limiter.acquireTimeoutMillis (bounded by their deadline), then are rejected.
+ * The limit adapts to the endpoint (AIMD) : every call answered within jdbc.limiter.latencyThresholdMillis
+ * raises it by 1/limit, up to jdbc.limiter.maxLimit (default jdbc.pool.maxSize), a slower call or a failure of
+ * the endpoint lowers it by jdbc.limiter.backoffRatio, down to jdbc.limiter.minLimit. The limit is lowered once
+ * per window of calls : the calls already running when it was lowered do not lower it again.
+ * Circuit breaker : when at least jdbc.breaker.failureRatePercent of the last jdbc.breaker.windowSize calls
+ * failed on the endpoint (timeouts, lost connections), every call is rejected for jdbc.breaker.openSeconds. Then
+ * one provisioning call is let through, the circuit closes again when it succeeds. Recons are rejected while the
+ * circuit is open but are never the probe, a recon holding the half open circuit for hours would block provisioning.
+ * Only failures of the endpoint itself count, an invalid query or a duplicate key is a call the endpoint answered.
+ * A call closed without outcome (see Permit.close()) is not counted.
+ * The guard is disabled with jdbc.limiter.enabled=false in databaseconfig.properties.
+ */
+public final class EndpointGuard {
+
+	private static final Logger logger = LoggerFactory.getLogger(EndpointGuard.class);
+
+	private static final int MAX_GUARDS = 256;
+	private static final ConcurrentHashMap<String, EndpointGuard> GUARDS = new ConcurrentHashMap<String, EndpointGuard>();
+
+	private static final boolean ENABLED = ConnectorSettings.getBoolean("jdbc.limiter.enabled", true);
+	private static final int MAX_LIMIT = Math.max(1,
+			ConnectorSettings.getInt("jdbc.limiter.maxLimit", ConnectorSettings.getInt("jdbc.pool.maxSize", 10)));
+	private static final int MIN_LIMIT = Math.max(1, Math.min(MAX_LIMIT, ConnectorSettings.getInt("jdbc.limiter.minLimit", 1)));
+	private static final long LATENCY_THRESHOLD_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(ConnectorSettings.getInt("jdbc.limiter.latencyThresholdMillis", 2000));
+	private static final long ACQUIRE_TIMEOUT_MILLIS = ConnectorSettings.getInt("jdbc.limiter.acquireTimeoutMillis", 5000);
+	private static final double BACKOFF_RATIO = Double
+			.parseDouble(ConnectorSettings.getString("jdbc.limiter.backoffRatio", "0.75"));
+	private static final int WINDOW_SIZE = Math.max(1, ConnectorSettings.getInt("jdbc.breaker.windowSize", 20));
+	private static final int MINIMUM_CALLS = Math.min(WINDOW_SIZE, ConnectorSettings.getInt("jdbc.breaker.minimumCalls", 10));
+	private static final int FAILURE_RATE_PERCENT = ConnectorSettings.getInt("jdbc.breaker.failureRatePercent", 50);
+	private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(ConnectorSettings.getInt("jdbc.breaker.openSeconds", 30));
+
+	private enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String endpoint;
+	private double limit = MAX_LIMIT;
+	private boolean decreased;
+	/** System.nanoTime() of the last decrease of the limit */
+	private long decreasedAt;
+	private int inFlight;
+	private long rejected;
+	private State state = State.CLOSED;
+	private long openedAt;
+	/** outcome of the last calls, true for a failure of the endpoint */
+	private final boolean[] window = new boolean[WINDOW_SIZE];
+	private int windowCalls;
+	private int windowNext;
+	private int windowFailures;
+
+	private EndpointGuard(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * @param data the data map of a call
+	 * @return the guard of the endpoint of the call
+	 */
+	public static EndpointGuard forData(Map<String, Object> data) {
+		String endpoint = ConnectorConfigPlan.endpointKey(data);
+		EndpointGuard guard = GUARDS.get(endpoint);
+		if (guard == null) {
+			if (GUARDS.size() >= MAX_GUARDS) {
+				evictIdle();
+			}
+			guard = GUARDS.computeIfAbsent(endpoint, EndpointGuard::new);
+		}
+		return guard;
+	}
+
+	/**
+	 * to drop the guards without running calls, a guard with calls running keeps their slots and its circuit
+	 */
+	private static void evictIdle() {
+		for (EndpointGuard guard : GUARDS.values()) {
+			synchronized (guard) {
+				if (guard.inFlight == 0) {
+					GUARDS.remove(guard.endpoint, guard);
+				}
+			}
+		}
+	}
+
+	/**
+	 * to take a slot of the endpoint for a provisioning call
+	 *
+	 * @param operation the operation e.g. UpdateAccountJSON
+	 * @param sampled true when the latency of the call adapts the limit, false for calls of varying size such
+	 *        as bulk chunks
+	 * @return the permit of the call, to be closed when the call ends
+	 * @throws ConnectorException when the circuit of the endpoint is open or no slot was freed in time
+	 */
+	public Permit acquire(String operation, boolean sampled) {
+		if (!ENABLED) {
+			return new Permit(null, sampled);
+		}
+		synchronized (this) {
+			checkCircuit(operation);
+			if (inFlight >= (int) limit) {
+				//a burst waits for the running calls, only an endpoint that does not free its slots rejects calls
+				long deadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(OperationDeadline.acquireTimeoutMillis(ACQUIRE_TIMEOUT_MILLIS));
+				while (inFlight >= (int) limit) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						rejected++;
+						throw new ConnectorException("Endpoint " + endpoint + " is at its concurrency limit of "
+								+ (int) limit + ", " + operation + " rejected");
+					}
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						rejected++;
+						throw new ConnectorException(operation + " interrupted waiting for a slot of endpoint " + endpoint);
+					}
+					//the circuit may have opened while waiting
+					checkCircuit(operation);
+				}
+			}
+			inFlight++;
+		}
+		return new Permit(this, sampled);
+	}
+
+	/**
+	 * to check the circuit without probing it, for calls that do not take a slot such as recon : a call that
+	 * passes an open circuit whose openSeconds are over does not become its half open probe
+	 *
+	 * @return true when the circuit is open and calls are rejected
+	 */
+	public synchronized boolean isOpen() {
+		return ENABLED && state == State.OPEN && System.nanoTime() - openedAt < OPEN_NANOS;
+	}
+
+	/**
+	 * to fail fast when the circuit of the endpoint is open, an open circuit whose openSeconds are over lets the
+	 * caller through as its probe
+	 */
+	private void checkCircuit(String operation) {
+		if (!ENABLED || state == State.CLOSED) {
+			return;
+		}
+		if (state == State.OPEN && System.nanoTime() - openedAt >= OPEN_NANOS) {
+			//one probe call is let through
+			state = State.HALF_OPEN;
+			return;
+		}
+		rejected++;
+		throw new ConnectorException("Endpoint " + endpoint + " is failing, circuit open, " + operation + " rejected");
+	}
+
+	/**
+	 * to record the outcome of a call of the endpoint that did not take a slot, e.g. a recon read from the endpoint
+	 * itself rather than from one of its replicas
+	 *
+	 * @param failure the failure of the call, null when it succeeded
+	 */
+	public void record(Throwable failure) {
+		if (ENABLED) {
+			completed(false, System.nanoTime(), 0, failure);
+		}
+	}
+
+	/**
+	 * @param start System.nanoTime() when the call started
+	 * @param nanos duration of the call
+	 */
+	private synchronized void completed(boolean sampled, long start, long nanos, Throwable failure) {
+		boolean endpointFailure = failure != null && isEndpointFailure(failure);
+		if (sampled || endpointFailure) {
+			if (endpointFailure || nanos > LATENCY_THRESHOLD_NANOS) {
+				//the calls started before the last decrease ran under the higher limit, they do not lower it again
+				if (!decreased || start - decreasedAt > 0) {
+					limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+					decreased = true;
+					decreasedAt = System.nanoTime();
+				}
+			} else {
+				limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+				notifyAll();
+			}
+		}
+		if (state == State.HALF_OPEN) {
+			if (endpointFailure) {
+				open();
+			} else {
+				logger.info("Endpoint " + endpoint + " answered again, circuit closed");
+				state = State.CLOSED;
+				windowCalls = 0;
+				windowNext = 0;
+				windowFailures = 0;
+			}
+			return;
+		}
+		if (windowCalls == WINDOW_SIZE) {
+			windowFailures -= window[windowNext] ? 1 : 0;
+		} else {
+			windowCalls++;
+		}
+		window[windowNext] = endpointFailure;
+		windowFailures += endpointFailure ? 1 : 0;
+		windowNext = (windowNext + 1) % WINDOW_SIZE;
+		if (state == State.CLOSED && windowCalls >= MINIMUM_CALLS
+				&& windowFailures * 100 >= FAILURE_RATE_PERCENT * windowCalls) {
+			open();
+		}
+	}
+
+	private void open() {
+		logger.info("Endpoint " + endpoint + " failed " + windowFailures + " of its last " + windowCalls
+				+ " calls, circuit open for " + TimeUnit.NANOSECONDS.toSeconds(OPEN_NANOS) + " seconds");
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+	}
+
+	/**
+	 * to end a call without outcome : it is not counted, a half open probe lets the next call probe again
+	 */
+	private synchronized void abandoned() {
+		if (state == State.HALF_OPEN) {
+			state = State.OPEN;
+			openedAt = System.nanoTime() - OPEN_NANOS;
+		}
+	}
+
+	private synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * failures showing that the endpoint is slow or unreachable, as opposed to errors of the call itself
+	 */
+	static boolean isEndpointFailure(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof OperationTimeoutException || cause instanceof SQLTimeoutException
+					|| cause instanceof SQLTransientException || cause instanceof SQLRecoverableException
+					|| cause instanceof SQLNonTransientConnectionException) {
+				return true;
+			}
+			if (cause instanceof SQLException) {
+				//08xxx connection exceptions, 40001 serialization failures and deadlocks
+				String sqlState = ((SQLException) cause).getSQLState();
+				if (sqlState != null && (sqlState.startsWith("08") || sqlState.equals("40001"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the state of every guarded endpoint : {endpoint={state=CLOSED, limit=.., inFlight=.., rejected=..}}
+	 */
+	public static Map<String, Object> snapshot() {
+		Map<String, Object> endpoints = new TreeMap<String, Object>();
+		for (EndpointGuard guard : GUARDS.values()) {
+			synchronized (guard) {
+				Map<String, Object> stats = new TreeMap<String, Object>();
+				stats.put("state", guard.state.name());
+				stats.put("limit", (int) guard.limit);
+				stats.put("inFlight", guard.inFlight);
+				stats.put("rejected", guard.rejected);
+				endpoints.put(guard.endpoint, stats);
+			}
+		}
+		return endpoints;
+	}
+
+	/**
+	 * Permit is the slot of one provisioning call
+	 */
+	public static final class Permit implements AutoCloseable {
+
+		private final EndpointGuard guard;
+		private final boolean sampled;
+		private final long start = System.nanoTime();
+		private boolean done;
+
+		private Permit(EndpointGuard guard, boolean sampled) {
+			this.guard = guard;
+			this.sampled = sampled;
+		}
+
+		/**
+		 * to record that the call succeeded
+		 */
+		public void succeeded() {
+			completed(null);
+		}
+
+		/**
+		 * to record that the call failed
+		 *
+		 * @param failure the failure of the call
+		 */
+		public void failed(Throwable failure) {
+			completed(failure);
+		}
+
+		private void completed(Throwable failure) {
+			if (guard != null && !done) {
+				done = true;
+				guard.completed(sampled, start, System.nanoTime() - start, failure);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (guard != null) {
+				//a call ending without outcome, e.g. on an unexpected exception, is neither a success nor a failure
+				if (!done) {
+					done = true;
+					guard.abandoned();
+				}
+				guard.release();
+			}
+		}
+	}
+}
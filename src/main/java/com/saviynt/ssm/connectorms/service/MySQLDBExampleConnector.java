@@ -1,22 +1,25 @@
 package com.saviynt.ssm.connectorms.service;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,7 +35,6 @@ import com.saviynt.ssm.abstractConnector.exceptions.InvalidAttributeValueExcepti
 import com.saviynt.ssm.abstractConnector.exceptions.InvalidCredentialException;
 import com.saviynt.ssm.abstractConnector.exceptions.MissingKeyException;
 import com.saviynt.ssm.abstractConnector.exceptions.OperationTimeoutException;
-import com.saviynt.ssm.abstractConnector.utility.GroovyService;
 /**
 * MySQLDBExampleConnector is an Example custom connector provided to explain how one can build
 * their own connector to manage accounts, entitlements etc in any target application via SSM. You need to
@@ -129,6 +131,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 
 		connectionAttributes.add("password");
 		connectionAttributes.add("url");
+		connectionAttributes.add("replicaUrl");
 		connectionAttributes.add("ReconcileJSON");
 		connectionAttributes.add("CreateAccountJSON");
 		
@@ -155,6 +158,8 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 		jsonObject.put("ReconcileJSON",
 				"SAMPLE JSON For    {'updatedUser':'SaviyntAdmin','reconType':'fullrecon','query':'  select * from accountrecon ','endpointId':61,'formatterClass':'com.saviynt.ssm.abstractConnector.AbstractFormatter','mapper':{'accounts':[{'saviyntproperty':'name','sourceproperty':'${accountName}'}],'account_attributes':[{'saviyntproperty':'attribute_name','sourceproperty':'${Emailaddress}'}],'account_entitlements':[{'saviyntproperty':'entitlementtype','sourceproperty':'${group}'},{'saviyntproperty':'entitlement_value','sourceproperty':'${entitlementVal}'},{'saviyntproperty':'name','sourceproperty':'${accountName}'}]}}");
 		jsonObject.put("CreateAccountJSON", "SAMPLE JSON   {'query':['Valid Sql Query']}");
+		jsonObject.put("replicaUrl",
+				"Optional read replica url used by reconcile, or JSON array of urls [\"jdbc:mysql://replica1:3306/db\",\"jdbc:mysql://replica2:3306/db\"]");
 		configData.setConnectionAttributesDescription(jsonObject.toString());		
 	}
 	/**
@@ -188,21 +193,25 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 		
 		try {
 			//process account reconciliation. IMPORTABLE_OBJECT is obtained from SSM and it suggest whether
-			//user or account  recon is happening. Values avaialble - USER, ACCOUNT.
-		if (data.get("IMPORTABLE_OBJECT") != null && data.get("IMPORTABLE_OBJECT").equals("ACCOUNT")) {
-			accountReconcile(configData, data);
+			//user, account or entitlement recon is happening. Values avaialble - USER, ACCOUNT, ENTITLEMENT.
+		Object importableObject = data.get("IMPORTABLE_OBJECT");
+		if (ReconPlan.ACCOUNT.equals(importableObject) || ReconPlan.USER.equals(importableObject)
+				|| ReconPlan.ENTITLEMENT.equals(importableObject)) {
+			objectReconcile(configData, data, importableObject.toString());
 			logger.debug("End DatabaseConnectorService reconcile");
 			return;
 		}
 		
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		} 
 
 	}
 	/**
-	 * to establish connection to the target system
+	 * to establish connection to the target system.
+	 * Connections are borrowed from the per endpoint pool of ConnectionPoolManager, closing the
+	 * returned connection hands it back to the pool instead of closing the socket.
 	 * 
 	 * @param configData the configData This is a metadata that contains the details of the information required 
 	          and configurations needed for establishing the connectivity to the target system and for doing provisioning and reconciliation operations. 
@@ -214,9 +223,21 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 	private static Connection getConnection(Map<String, Object> configData)
 			throws ClassNotFoundException, SQLException {
 
-		Class.forName(configData.get("drivername").toString());
-		return DriverManager.getConnection(configData.get("url").toString(), configData.get("username").toString(),
-				configData.get("password").toString());
+		return ConnectionPoolManager.getInstance().getConnection(configData);
+
+	}
+	/**
+	 * to establish a connection for reading a recon, with the jdbc.recon.mysql. connection properties of
+	 * databaseconfig.properties (e.g. useCursorFetch) that must not apply to provisioning connections.
+	 * @param configData connection attributes of the endpoint or of its replica
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	private static Connection getReconConnection(Map<String, Object> configData)
+			throws ClassNotFoundException, SQLException {
+
+		return ConnectionPoolManager.getInstance().getReconConnection(configData);
 
 	}
 	/**
@@ -289,8 +310,14 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 		logger.debug("Enter DatabaseConnectorService createAccount");
  		Map map = new HashMap();
  		Connection con = null;
+		EndpointGuard.Permit permit = EndpointGuard.forData(data).acquire("CreateAccountJSON", true);
+		ConnectorMetrics.Sample sample = ConnectorMetrics.start("CreateAccountJSON");
+		OperationDeadline deadline = null;
  
 		try {
+			//the insert and the read back are bounded by the deadline of CreateAccountJSON
+			deadline = OperationDeadline.start("CreateAccountJSON",
+					ConnectorConfigPlan.forData(data).getTimeoutMillis("CreateAccountJSON"));
 			/*
 			 * Use case : 
 			 * Create Account in MySQL DB using the query specified by the user in 
@@ -302,33 +329,43 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			 * Please note that we are sending back the entire account data for the current account to SSM
 			 */
 
-			//persist account data into target system 
-			executeInputQuery(configData, data, "CreateAccountJSON");
-						
-			//retrieve data from target to send back to SSM. 
-			
-			//Query to get the account record with name  equals to current ACCOUNTNAME retrieved from SSM
-			String query = "Select * from accounts where name = ? ";
+			//persist account data into target system, the keys generated by the insert are returned by the driver.
+			//the queries of CreateAccountJSON are committed together, before the account is read back
+			//on the same connection to the primary, a replica may not have the account yet
 			con = getConnection(data);
-     		JSONObject jsonObject = new JSONObject(data.get("ReconcileJSON").toString());
-    		Map<String, Object> dataForMap = jsonObject.toMap();
-			Map<String, Object> mapperMap = (Map<String, Object>) dataForMap.get("mapper");
+			List<ProvisioningQuery> queries = renderQueries(data, "CreateAccountJSON");
+			Connection transactionCon = con;
+			Map<String, Object> generatedKeys = ProvisioningQuery.transaction(con, queries.size(),
+					() -> ProvisioningQuery.executeReturningKeys(transactionCon, queries));
+						
+			//retrieve data from target to send back to SSM, on the connection of the insert. 
+			//the mapper of ReconcileJSON is compiled once per endpoint configuration, not on every call
+			AccountReadBack readBack = ConnectorConfigPlan.forData(data).getAccountReadBack();
 			
 			//The is the account name of the account being processed by SSM. This is set by SSM during provisioning job invocation
 			String accountName = data.get("ACCOUNTNAME").toString();
 			
-			//call getMetaDataFromTableAndMatchProperties() to retrieve the value of accountIdentifier column 
-			//of this account and map it to customproperty1
+			//read back the account record with name equals to current ACCOUNTNAME to retrieve the value of
+			//accountIdentifier column of this account and map it to customproperty1
 			//Note : We are sending back the entire account data of the current account to SSM which in turn will have 
 			//the mapping of the new accountIdentifier column as well
-			map.put("provisioningData", getMetaDataFromTableAndMatchProperties(con, mapperMap, query, accountName));
+			map.put("provisioningData", readBack.read(con, accountName, generatedKeys));
+			permit.succeeded();
+			sample.succeeded();
 			
 			logger.debug("Exit DatabaseConnectorService createAccount");
 		} catch (Exception ex) {
 			logger.error(ex.getMessage(), ex);
-			throw new ConnectorException(ex.getMessage());
+			OperationTimeoutException timeout = OperationDeadline.timeoutOf(ex);
+			permit.failed(timeout != null ? timeout : ex);
+			throw timeout != null ? timeout : new ConnectorException(ex.getMessage());
 		}
 		finally {
+		if (deadline != null) {
+			deadline.close();
+		}
+		permit.close();
+		sample.close();
 		if (con != null) {
 			try {
 				con.close();
@@ -380,7 +417,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.debug("End DatabaseConnectorService updateAccount");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 	}
@@ -416,7 +453,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 		    logger.debug("End DatabaseConnectorService lockAccount");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 	}
@@ -452,7 +489,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.debug("End DatabaseConnectorService disableAccount");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 		}
@@ -488,7 +525,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.info("End DatabaseConnectorService unLockAccount");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 	}
@@ -524,7 +561,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.debug("End DatabaseConnectorService enableAccount");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 	}
@@ -562,7 +599,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.debug("End DatabaseConnectorService removeAccount");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 
@@ -596,7 +633,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.info("End DatabaseConnectorService terminateAccount");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return resultCount ;
 	}
@@ -633,7 +670,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.debug("End DatabaseConnectorService AddAccessToAccountJSON");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 	}
@@ -670,7 +707,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.debug("End DatabaseConnectorService RemoveAccessToAccountJSON");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 	}
@@ -713,7 +750,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.debug("End DatabaseConnectorService createEntitlement");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 	}
@@ -754,7 +791,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.debug("End DatabaseConnectorService updateEntitlement");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return map;
 	}
@@ -787,7 +824,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.info("End DatabaseConnectorService changePassword");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return resultCount > 0 ? true : false;
 	}
@@ -820,7 +857,7 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.info("End DatabaseConnectorService createUser");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return resultCount > 0 ? true : false;
 	}
@@ -852,10 +889,79 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			logger.info("End DatabaseConnectorService updateUser");
 
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
 		return resultCount;
 	}
+	/**
+	 * to provision many accounts in one call, e.g. for a birthright wave pushing thousands of accounts at once.
+	 * Each item of dataList is the data map of one operation, as it would be passed to createAccount(), addAccessToAccount() etc,
+	 * plus the key OPERATION holding the operation JSON key to execute, e.g. CreateAccountJSON, AddAccessToAccountJSON,
+	 * RemoveAccessToAccountJSON.
+	 * Items are grouped by operation, groups are executed in the order in which the operation first appears in dataList.
+	 * The queries of a group are executed in chunks of jdbc.bulk.chunkSize items, each chunk is one JDBC batch committed in one transaction.
+	 * Connection attributes are taken from the first item. provisioningData is not read back for bulk items.
+	 *
+	 * @param configData the configData This is a metadata that contains the details of the information required 
+			  and configurations needed for establishing the connectivity to the target system and for doing provisioning and reconciliation operations. 
+	          This is defined in setConfig().These appear as JSON or fields on the UI that have to be inputed at the time of creating the connection for this connector in SSM
+	 * @param dataList the data map of each item with its OPERATION key
+	 * @return one result per item in the order of dataList :
+	 *         {index=0, operation=CreateAccountJSON, status=SUCCESS, resultCount=1} or
+	 *         {index=1, operation=CreateAccountJSON, status=FAILED, resultCount=0, error=XXXX}
+	 * @throws ConnectorException the connector exception
+	 */
+	public List<Map<String, Object>> bulkProvision(Map<String, Object> configData, List<Map<String, Object>> dataList)
+			throws ConnectorException {
+		logger.info("Enter DatabaseConnectorService bulkProvision");
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(dataList.size());
+		if (dataList.isEmpty()) {
+			return results;
+		}
+		Map<String, List<Integer>> itemsByOperation = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < dataList.size(); i++) {
+			results.add(null);
+			Object operation = dataList.get(i).get("OPERATION");
+			if (operation == null) {
+				results.set(i, bulkResult(i, null, 0, new MissingKeyException("OPERATION is missing")));
+			} else {
+				itemsByOperation.computeIfAbsent(operation.toString(), k -> new ArrayList<Integer>()).add(i);
+			}
+		}
+		int chunkSize = ConnectorSettings.getBulkChunkSize();
+
+		Connection con = null;
+		ConnectorMetrics.Sample sample = ConnectorMetrics.start("bulkProvision");
+		try {
+			con = getConnection(dataList.get(0));
+			for (Map.Entry<String, List<Integer>> operation : itemsByOperation.entrySet()) {
+				List<Integer> indexes = operation.getValue();
+				for (int from = 0; from < indexes.size(); from += chunkSize) {
+					List<Integer> chunkIndexes = indexes.subList(from, Math.min(from + chunkSize, indexes.size()));
+					List<Map<String, Object>> items = new ArrayList<Map<String, Object>>(chunkIndexes.size());
+					for (Integer index : chunkIndexes) {
+						items.add(dataList.get(index));
+					}
+					executeBulkChunk(con, operation.getKey(), items, chunkIndexes, results);
+				}
+			}
+			sample.succeeded();
+			logger.info("End DatabaseConnectorService bulkProvision");
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			throw OperationDeadline.translate(e);
+		} finally {
+			sample.close();
+			if (con != null) {
+				try {
+					con.close();
+				} catch (SQLException e) {
+					throw new ConnectorException(e);
+				}
+			}
+		}
+		return results;
+	}
 	/**
 	 * to validate credentials of the given input from connection
 	 * Example : to validate credentials in the target system , refer to the below steps
@@ -882,8 +988,9 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 		return null;
 	}
 	/**
-	 * This is for FUTURE implementation hence ignore for now
-	 * to get the summary of number of records for the given input object such as accounts.It provides number of accounts,users etc
+	 * to get the summary of the connector : the live performance metrics collected by ConnectorMetrics
+	 * (call count, error count and latency percentiles per operation, recon row counts, connection acquire times
+	 * and template cache hit ratio)
 	 *
      * @param configData the configData This is a metadata that contains the details of the information required 
 			  and configurations needed for establishing the connectivity to the target system and for doing provisioning and reconciliation operations. 
@@ -893,42 +1000,23 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			  Along with connection attributes, this parameter also contains some additional information (key value pairs) that can be used during
               provisioning,reconciliation etc. e.g IMPORTABLE_OBJECT - This signifies whether account recon or user recon is happening. Valid values ("ACCOUNT","USER") 
               endpointId -  contains endpoint Id for the endpoint corresponding to this connector
-	 * @return the summary map with object and count as key ,value. This is for future implementation hence ignore for now
+	 * @return the metrics map, see ConnectorMetrics.snapshot()
 	 */
 	@Override
 	public Map<String, Object> getSummary(Map<String, Object> configData, Map<String, Object> data) {
-		Map<String, Object> map = new HashMap<String, Object>();
-		// future implementation
-		return map;
+		return ConnectorMetrics.getInstance().snapshot();
 	}
 	/**
-	 * Read database properties for batch size
+	 * to read a boolean flag of the input JSON which may be given as true or "true"
 	 * 
-	 * @return integer holds the number of batches
+	 * @param value the JSON value
+	 * @return true when the flag is set
 	 */
-	private Integer batchSize() {
-
-		int batchSize = 0;
-		try (InputStream input = getClass().getClassLoader().getResourceAsStream("databaseconfig.properties")) {
-
-			Properties prop = new Properties();
-			if (input == null) {
-				System.out.println("unable to find " + input);
-			}
-			prop.load(input);
-			batchSize = Integer.valueOf(prop.getProperty("jdbc.batch.size"));
-			if (batchSize <= 0) {
-
-				batchSize = Integer.MIN_VALUE;
-			}
-
-		} catch (IOException ex) {
-			ex.printStackTrace();
-		}
-		return batchSize;
+	private static boolean isTrue(Object value) {
+		return value != null && Boolean.parseBoolean(value.toString());
 	}
 	/**
-	 * executeInputQuery is the query to be executed in target system
+	 * executeInputQuery executes the queries of an operation JSON in the target system, in one transaction
 	 * @param configData the configData This is a metadata that contains the details of the information required 
 			  and configurations needed for establishing the connectivity to the target system and for doing provisioning and reconciliation operations. 
 	          This is defined in setConfig().These appear as JSON or fields on the UI that have to be inputed at the time of creating the connection for this connector in SSM
@@ -944,25 +1032,34 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 
 		Connection con = null;
 		Integer resultCount = 0;
+		//fails fast when the endpoint is overloaded or failing, see EndpointGuard
+		EndpointGuard.Permit permit = EndpointGuard.forData(data).acquire(key, true);
+		//timed under the name of the operation JSON e.g. LockAccountJSON, see ConnectorMetrics
+		ConnectorMetrics.Sample sample = ConnectorMetrics.start(key);
+		OperationDeadline deadline = null;
 
 		try {
+			//the statements and the connection acquire of the operation are bounded by its deadline
+			deadline = OperationDeadline.start(key, ConnectorConfigPlan.forData(data).getTimeoutMillis(key));
 			con = getConnection(data);
 			if (data.containsKey(key)) {
-				JSONObject jsonObject = new JSONObject(data.get(key).toString());
-				JSONArray query = jsonObject.getJSONArray("query");
-				Statement stmt = con.createStatement();
-				for (int i = 0; i < query.length(); i++) {
-					String queryStr = GroovyService.convertTemplateToString(query.getString(i), data);
-					stmt.addBatch(queryStr);
-				}
-				resultCount = stmt.executeBatch().length;
-
+				//all queries of the operation are applied in one transaction
+				resultCount = ProvisioningQuery.executeTransaction(con, renderQueries(data, key));
 			}
+			permit.succeeded();
+			sample.succeeded();
 
 			return resultCount;
 		} catch (Exception e) {
-			throw new ConnectorException(e);
+			ConnectorException failure = OperationDeadline.translate(e);
+			permit.failed(failure);
+			throw failure;
 		} finally {
+			if (deadline != null) {
+				deadline.close();
+			}
+			permit.close();
+			sample.close();
 			if (con != null) {
 				try {
 					con.close();
@@ -974,136 +1071,419 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 		}
 	}
 	/**
-	 * set properties from target system to saviynt properties from input JSON
-  	 * @param data contains the values (input details) of the JSON attributes/fields specified at the time of creating the connection for this connector in SSM UI.
-              current user/task/entitlement/account data referred in inputed JSON are dynamically populated at the runtime. 
-			  Along with connection attributes, this parameter also contains some additional information (key value pairs) that can be used during
-              provisioning,reconciliation etc. e.g IMPORTABLE_OBJECT - This signifies whether account recon or user recon is happening. Valid values ("ACCOUNT","USER") 
-              endpointId -  contains endpoint Id for the endpoint corresponding to this connector
-	 * @param con connection details
-	 * @param lastRunDate
-	 * @return
+	 * to render the queries of an operation JSON e.g. CreateAccountJSON {'query':['Valid Sql Query']} with the data.
+	 * Entries of the query array can also be parameterized queries {'sql':'Valid Sql Query with ?','params':['${ACCOUNTNAME}']},
+	 * see ProvisioningQuery. The JSON is parsed once per endpoint configuration, see ConnectorConfigPlan.
+	 * @param data contains the values (input details) of the JSON attributes/fields specified at the time of creating the connection for this connector in SSM UI.
+	 * @param key the operation JSON key e.g. CreateAccountJSON
+	 * @return the rendered queries, empty when data has no JSON for the key
+	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
-	private List<List<Map<String, Object>>> mapPropertiesToSaviynt(Map<String, Object> data, Connection con,
-			Date lastRunDate) {
-
-		String queryInput = data.get("query").toString();
-		String query = "";
-		if (lastRunDate != null) {
-			query = queryInput.concat(" where updatedate >= " + lastRunDate);
-		} else {
-			query = queryInput;
+	private static List<ProvisioningQuery> renderQueries(Map<String, Object> data, String key) throws Exception {
+		ConnectorConfigPlan plan = ConnectorConfigPlan.forData(data);
+		if (!plan.has(key)) {
+			return new ArrayList<ProvisioningQuery>();
 		}
-		List<List<Map<String, Object>>> accountsAllDataMAp = new ArrayList<List<Map<String, Object>>>();
-		try {
-
-			Map<String, Object> mapperMap = (Map<String, Object>) data.get("mapper");
-			accountsAllDataMAp = getDataFromTableAndMatchProperties(con, mapperMap, query);
-
-		} catch (Exception e) {
+		return ProvisioningQuery.renderAll(plan.getQueries(key), data);
+	}
+	/**
+	 * executeBulkChunk executes the queries of a chunk of bulk items of the same operation as one JDBC batch
+	 * in one transaction. When the batch fails the transaction is rolled back and every item is executed again in
+	 * its own transaction, so that the failing items are identified and the others are still applied.
+	 * @param con connection to the target system
+	 * @param key the operation JSON key
+	 * @param items the item data maps
+	 * @param indexes position of each item in the bulk request
+	 * @param results result map of each item in the bulk request, filled for the items of this chunk
+	 */
+	private void executeBulkChunk(Connection con, String key, List<Map<String, Object>> items,
+			List<Integer> indexes, List<Map<String, Object>> results) throws SQLException {
 
-			logger.error("Error" + e.getMessage());
+		List<List<ProvisioningQuery>> rendered = new ArrayList<List<ProvisioningQuery>>();
+		List<Integer> renderedIndexes = new ArrayList<Integer>();
+		for (int i = 0; i < items.size(); i++) {
+			try {
+				rendered.add(renderQueries(items.get(i), key));
+				renderedIndexes.add(indexes.get(i));
+			} catch (Exception e) {
+				results.set(indexes.get(i), bulkResult(indexes.get(i), key, 0, e));
+			}
+		}
+		if (rendered.isEmpty()) {
+			return;
 		}
-		return accountsAllDataMAp;
 
+		//a chunk rejected by the guard of the endpoint fails its items, bulk chunks do not adapt the limit
+		EndpointGuard.Permit permit;
+		try {
+			permit = EndpointGuard.forData(items.get(0)).acquire(key, false);
+		} catch (ConnectorException rejected) {
+			for (Integer index : renderedIndexes) {
+				results.set(index, bulkResult(index, key, 0, rejected));
+			}
+			return;
+		}
+		OperationDeadline deadline = null;
+		boolean transaction = false;
+		try {
+			//the chunk and its retries are bounded by the deadline of the operation
+			deadline = OperationDeadline.start(key, ConnectorConfigPlan.forData(items.get(0)).getTimeoutMillis(key));
+			con.setAutoCommit(false);
+			transaction = true;
+			List<ProvisioningQuery> chunkQueries = new ArrayList<ProvisioningQuery>();
+			for (List<ProvisioningQuery> queries : rendered) {
+				chunkQueries.addAll(queries);
+			}
+			ProvisioningQuery.executeBatch(con, chunkQueries);
+			ProvisioningQuery.commit(con, chunkQueries.size());
+			for (int i = 0; i < rendered.size(); i++) {
+				results.set(renderedIndexes.get(i), bulkResult(renderedIndexes.get(i), key, rendered.get(i).size(), null));
+			}
+			permit.succeeded();
+		} catch (SQLException batchFailure) {
+			permit.failed(batchFailure);
+			if (!transaction) {
+				//the transaction could not be started, nothing was executed
+				for (Integer index : renderedIndexes) {
+					results.set(index, bulkResult(index, key, 0, batchFailure));
+				}
+				return;
+			}
+			ProvisioningQuery.rollback(con, batchFailure);
+			logger.info("Bulk " + key + " batch of " + rendered.size() + " items failed, retrying items one by one : "
+					+ batchFailure.getMessage());
+			for (int i = 0; i < rendered.size(); i++) {
+				int index = renderedIndexes.get(i);
+				try {
+					ProvisioningQuery.executeBatch(con, rendered.get(i));
+					ProvisioningQuery.commit(con, rendered.get(i).size());
+					results.set(index, bulkResult(index, key, rendered.get(i).size(), null));
+				} catch (SQLException e) {
+					ProvisioningQuery.rollback(con, e);
+					results.set(index, bulkResult(index, key, 0, e));
+				}
+			}
+		} finally {
+			if (deadline != null) {
+				deadline.close();
+			}
+			permit.close();
+			if (transaction) {
+				con.setAutoCommit(true);
+			}
+		}
+	}
+	/**
+	 * to build the result of one bulk item
+	 * @param index position of the item in the bulk request
+	 * @param key the operation JSON key
+	 * @param resultCount number of queries executed for the item
+	 * @param error the failure of the item or null
+	 * @return the result map
+	 */
+	private static Map<String, Object> bulkResult(int index, String key, int resultCount, Exception error) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		result.put("index", index);
+		result.put("operation", key);
+		result.put("status", error == null ? "SUCCESS" : "FAILED");
+		result.put("resultCount", resultCount);
+		if (error != null) {
+			result.put("error", error.getMessage());
+		}
+		return result;
 	}
 	/**
-	 * getDataFromTableAndMatchProperties to match data fetched from target system to saviynt
+	 * set properties from target system to saviynt properties from input JSON
+	 * @param plan the recon configuration of the importable object
+	 * @param endpointId the endpoint of the recon, with the importable object for USER and ENTITLEMENT
 	 * @param con connection details
-	 * @param mapperMap contains system match properties from saviynt to target 
-	 * @param query to be executed in target system
-	 * @return List
+	 * @param lastRunDate date of the last recon, when set only rows whose incrementalColumn (default updatedate)
+	 *        is at or after lastRunDate minus overlapMinutes (default 0) are read. The overlap window covers
+	 *        clock skew and transactions that committed after the last recon started.
+	 * @param dictionary the intern table of the recon, null when values are not interned
+	 * @param sink receives the mapped rows while the query is read
+	 * @return the number of rows read
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
-	private List<List<Map<String, Object>>> getDataFromTableAndMatchProperties(Connection con,
-			Map<String, Object> mapperMap, String query) throws Exception {
-
-		Statement stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-		stmt.setFetchSize(batchSize());
-		ResultSet rs = stmt.executeQuery(query);
-		ResultSetMetaData rsmd = rs.getMetaData();
+	private long mapPropertiesToSaviynt(ReconPlan plan, String endpointId, Connection con,
+			Date lastRunDate, ReconDictionary dictionary, ReconRowSink sink) throws Exception {
 
-		List<List<Map<String, Object>>> allAccountsFinalList = new ArrayList<List<Map<String, Object>>>();
+		return getDataFromTableAndMatchProperties(con, plan.getMapperPlan(), dictionary,
+				reconQuery(plan, con, lastRunDate), fetchStrategy(plan, lastRunDate), endpointId, sink);
 
-		while (rs.next()) {
-
-			Map<String, Object> resultsetMap = new HashMap<String, Object>();
-			for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-
-				String column = rsmd.getColumnLabel(i);
-				resultsetMap.putIfAbsent(column, rs.getString(i));
+	}
+	/**
+	 * to get the fetch strategy of a recon, only the pages of an incremental recon are checkpointed. A full recon
+	 * must notify every account, it never resumes after the pages notified by a failed recon.
+	 * @param plan the recon configuration of the importable object
+	 * @param lastRunDate date of the last recon or null for a full recon
+	 * @return the fetch strategy
+	 */
+	private static ReconFetchStrategy fetchStrategy(ReconPlan plan, Date lastRunDate) {
+		return lastRunDate != null ? plan.getFetchStrategy() : plan.getFetchStrategy().withoutCheckpoint();
+	}
+	/**
+	 * to build the recon query of ReconcileJSON with the incremental filter when lastRunDate is set.
+	 * A query reading every column of one table is rewritten to read the columns used only, see ReconProjection.
+	 * @param plan the recon configuration of the importable object
+	 * @param con connection used to learn the projection of the query
+	 * @param lastRunDate date of the last recon or null for a full recon
+	 * @return the query to execute
+	 * @throws SQLException
+	 */
+	private ReconQuery reconQuery(ReconPlan plan, Connection con, Date lastRunDate) throws SQLException {
+		Map<String, Object> data = plan.getConfig();
+		ReconQuery query = new ReconQuery(data.get("query").toString());
+		ReconProjection projection = plan.getProjection(con, query.getBaseQuery());
+		if (projection != null) {
+			query = new ReconQuery(projection.rewrite(query.getBaseQuery()));
+		}
+		if (lastRunDate != null) {
+			String incrementalColumn = data.get("incrementalColumn") != null ? data.get("incrementalColumn").toString()
+					: "updatedate";
+			long overlapMinutes = data.get("overlapMinutes") != null
+					? Long.parseLong(data.get("overlapMinutes").toString()) : 0;
+			Timestamp since = new Timestamp(lastRunDate.getTime() - TimeUnit.MINUTES.toMillis(overlapMinutes));
+			query.where(incrementalColumn + " >= ?", since);
+		}
+		return query;
+	}
+	/**
+	 * partitionedReconcile splits the recon query into partitionCount slices on partitionColumn and reads the
+	 * slices concurrently, each on its own pooled connection and thread. Rows are mapped on the reading thread
+	 * and handed to the shared sink.
+	 * At most jdbc.pool.maxSize - 1 slices are read at once, the other slices wait for a free thread : the recon
+	 * never holds every connection of the recon pool of the endpoint, so another recon can still borrow one and a
+	 * partitionCount above the pool size does not fail on jdbc.pool.borrowTimeoutSeconds.
+	 * partitionStrategy hash (default) : slice i reads the rows where ABS(MOD(partitionColumn, partitionCount)) = i,
+	 *                                    partitionColumn must be numeric
+	 * partitionStrategy range          : min and max of partitionColumn are read first and the numeric range between
+	 *                                    them is split into partitionCount contiguous ranges
+	 * @param connectionData connection attributes used to borrow connections for the slices
+	 * @param plan the recon configuration of the importable object
+	 * @param endpointId the endpoint of the recon, with the importable object for USER and ENTITLEMENT
+	 * @param lastRunDate date of the last recon or null for a full recon
+	 * @param dictionary the intern table of the recon shared by all slices, null when values are not interned
+	 * @param sink receives the mapped rows of all slices, it must be thread safe
+	 * @return the number of rows read
+	 * @throws Exception
+	 */
+	private long partitionedReconcile(Map<String, Object> connectionData, ReconPlan plan,
+			String endpointId, Date lastRunDate, ReconDictionary dictionary, ReconRowSink sink) throws Exception {
+
+		Map<String, Object> data = plan.getConfig();
+		String partitionColumn = data.get("partitionColumn").toString();
+		int partitionCount = Integer.parseInt(data.get("partitionCount").toString());
+		String strategy = data.get("partitionStrategy") != null ? data.get("partitionStrategy").toString() : "hash";
+		ReconMapperPlan mapperPlan = plan.getMapperPlan();
+		ReconFetchStrategy fetchStrategy = fetchStrategy(plan, lastRunDate);
+		ReconQuery baseQuery;
+		BigDecimal min = null;
+		BigDecimal max = null;
+		try (Connection con = getReconConnection(connectionData)) {
+			baseQuery = reconQuery(plan, con, lastRunDate);
+			if ("range".equalsIgnoreCase(strategy)) {
+				try (PreparedStatement stmt = baseQuery.prepare(con,
+						"min(" + partitionColumn + "), max(" + partitionColumn + ")")) {
+					OperationDeadline.apply(stmt);
+					ResultSet rs = stmt.executeQuery();
+					if (rs.next()) {
+						min = rs.getBigDecimal(1);
+						max = rs.getBigDecimal(2);
 			}
-			List<Map<String, Object>> tempList = new ArrayList<Map<String, Object>>();
-
-			for (String maperKey : mapperMap.keySet()) {
-
-				Map<String, Object> oneRow = new HashMap<String, Object>();
-
-				List<Map<String, String>> valMap = (List<Map<String, String>>) mapperMap.get(maperKey);
-				for (Map<String, String> columnPropertyMap : valMap) {
-					oneRow.put(maperKey.toUpperCase() + "." + columnPropertyMap.get("saviyntproperty").toUpperCase(),
-							GroovyService.convertTemplateToString(columnPropertyMap.get("sourceproperty"),
-									resultsetMap));
+ 				}
+			}
+  		}
 
+		List<ReconQuery> slices = new ArrayList<ReconQuery>();
+		if ("range".equalsIgnoreCase(strategy)) {
+			if (min == null || max == null) {
+				logger.info("Partitioned recon found no rows to read");
+				return 0;
+			}
+			BigDecimal step = max.subtract(min).divide(BigDecimal.valueOf(partitionCount), MathContext.DECIMAL64);
+			for (int i = 0; i < partitionCount; i++) {
+				BigDecimal lower = min.add(step.multiply(BigDecimal.valueOf(i)));
+				if (i == partitionCount - 1) {
+					slices.add(baseQuery.copy().where(partitionColumn + " >= ? and " + partitionColumn + " <= ?",
+							lower, max));
+				} else {
+					BigDecimal upper = min.add(step.multiply(BigDecimal.valueOf(i + 1)));
+					slices.add(baseQuery.copy().where(partitionColumn + " >= ? and " + partitionColumn + " < ?",
+							lower, upper));
 				}
-				
-				tempList.add(oneRow);
-
 			}
-			allAccountsFinalList.add(tempList);
+		} else {
+			for (int i = 0; i < partitionCount; i++) {
+				slices.add(baseQuery.copy().where("ABS(MOD(" + partitionColumn + ", ?)) = ?", partitionCount, i));
+			}
 		}
 
-		return allAccountsFinalList;
+		int threads = Math.min(slices.size(), Math.max(1, ConnectionPoolManager.getInstance().getMaxSize() - 1));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "MySQLDBExampleConnector-recon-partition");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			OperationDeadline reconDeadline = OperationDeadline.current();
+			for (ReconQuery slice : slices) {
+				futures.add(executor.submit(() -> {
+					OperationDeadline deadline = OperationDeadline.inherit(reconDeadline);
+					try (Connection con = getReconConnection(connectionData)) {
+						return getDataFromTableAndMatchProperties(con, mapperPlan, dictionary, slice, fetchStrategy,
+								endpointId, sink);
+					} finally {
+						deadline.close();
+					}
+				}));
+			}
+			long rowCount = 0;
+			for (Future<Long> future : futures) {
+				try {
+					rowCount += future.get();
+				} catch (ExecutionException e) {
+					for (Future<Long> other : futures) {
+						other.cancel(true);
+					}
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+			return rowCount;
+		} finally {
+			executor.shutdownNow();
+		}
 	}
 	/**
-	 * to set data to the map from the target system by matching saviynt and target system properties 
-	 * @param con contains connection details for the target system
-	 * @param mapperMap contains system match properties from saviynt to target 
-	 * @param query to be executed to fetch data from target system
-	 * @param name input param which is account name
-	 * @return Map
+	 * getDataFromTableAndMatchProperties to match data fetched from target system to saviynt.
+	 * Each mapped row is handed to the sink as soon as it is read, the rows are not collected in memory here.
+	 * How the driver fetches the rows is set by fetchStrategy in ReconcileJSON, see ReconFetchStrategy.
+	 * @param con connection details
+	 * @param mapperPlan the mapper compiled once for this recon
+	 * @param dictionary the intern table of the recon, null when values are not interned
+	 * @param query to be executed in target system
+	 * @param fetchStrategy the fetch strategy of ReconcileJSON
+	 * @param endpointId the endpoint of the recon, it names the checkpoints of paged fetch
+	 * @param sink receives the mapped rows
+	 * @return the number of rows read
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
-	private Map<String, Object> getMetaDataFromTableAndMatchProperties(Connection con,
-			Map<String, Object> mapperMap, String query,String name) throws Exception {
-
-		PreparedStatement stmt = con.prepareStatement(query);
- 		stmt.setString(1, name);
-		ResultSet rs = stmt.executeQuery();
-		ResultSetMetaData rsmd = rs.getMetaData();
+	private long getDataFromTableAndMatchProperties(Connection con, ReconMapperPlan mapperPlan,
+			ReconDictionary dictionary, ReconQuery query, ReconFetchStrategy fetchStrategy, String endpointId,
+			ReconRowSink sink) throws Exception {
 
-		Map<String, Object> oneRowResultMap = new HashMap<String, Object>();
+		ReconFetchStrategy.Mode mode = fetchStrategy.resolve(con, query);
+		if (mode == ReconFetchStrategy.Mode.PAGED) {
+			return readPages(con, mapperPlan, dictionary, query, fetchStrategy, endpointId, sink);
+		}
 
-		while (rs.next()) {
+		long rowCount = 0;
 
-			Map<String, Object> resultsetMap = new HashMap<String, Object>();
-			for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+		try (PreparedStatement stmt = query.prepare(con)) {
+			//the statement is cancelled if the recon deadline passes while its rows are read
+			OperationDeadline.Watch watch = OperationDeadline.watch(stmt);
+			try {
+				fetchStrategy.apply(con, stmt, mode);
+				OperationDeadline.apply(stmt);
+				ResultSet rs = stmt.executeQuery();
+				//column labels are resolved once, simple ${column} mapper expressions are evaluated by column index
+				ReconMapperPlan.Bound boundPlan = mapperPlan.bind(rs.getMetaData(), dictionary);
+				ReconRowSink.RowReader reader = sink.reader(boundPlan);
+
+				while (rs.next()) {
+					reader.read(rs);
+					rowCount++;
+				}
+				reader.finish();
+			} finally {
+				watch.close();
+			}
+		}
+		ConnectorMetrics.getInstance().recordRows(rowCount);
 
-				String column = rsmd.getColumnLabel(i);
-				resultsetMap.putIfAbsent(column, rs.getString(i));
+		return rowCount;
+	}
+	/**
+	 * readPages reads the query in pages of pageSize rows ordered by pageColumn, each page starting after the
+	 * last pageColumn value of the previous page, so no page ever holds more than pageSize rows in the driver
+	 * and no statement stays open between pages. Queries that are not a plain select of one table are read in
+	 * one pass instead, see ReconFetchStrategy.resolve().
+	 * When checkpointing is on, every page is notified before its last key is written to the checkpoint, and
+	 * the read starts after the key of the checkpoint left by a failed recon.
+	 * @param con connection details
+	 * @param mapperPlan the mapper compiled once for this recon
+	 * @param dictionary the intern table of the recon, null when values are not interned
+	 * @param query to be executed in target system
+	 * @param fetchStrategy the paged fetch strategy
+	 * @param endpointId the endpoint of the recon
+	 * @param sink receives the mapped rows
+	 * @return the number of rows read
+	 * @throws Exception
+	 */
+	private long readPages(Connection con, ReconMapperPlan mapperPlan, ReconDictionary dictionary,
+			ReconQuery query, ReconFetchStrategy fetchStrategy, String endpointId, ReconRowSink sink)
+			throws Exception {
+
+		String pageColumn = fetchStrategy.getPageColumn();
+		int pageSize = fetchStrategy.getPageSize();
+		ReconCheckpoint checkpoint = fetchStrategy.isCheckpoint()
+				? ReconCheckpoint.open(endpointId, query, pageColumn) : null;
+		if (checkpoint != null && checkpoint.isComplete()) {
+			return 0;
+		}
+		long rowCount = 0;
+		Object lastKey = checkpoint != null ? checkpoint.getLastKey() : null;
+		ReconRowSink.RowReader reader = null;
+		int pageRows;
+		do {
+			ReconQuery page = query.copy();
+			if (lastKey != null) {
+				page.where(pageColumn + " > ?", lastKey);
 			}
-			for (String mapperKey : mapperMap.keySet()) {
-
- 				if(mapperKey.equalsIgnoreCase("ACCOUNT")) {
- 					
- 					List<Map<String, String>> valMap = (List<Map<String, String>>) mapperMap.get(mapperKey);
- 					for (Map<String, String> columnPropertyMap : valMap) {
- 						oneRowResultMap.put(mapperKey.toUpperCase() + "." + columnPropertyMap.get("saviyntproperty").toUpperCase(),
- 								GroovyService.convertTemplateToString(columnPropertyMap.get("sourceproperty"),
- 										resultsetMap));
- 					}
- 					break;
- 				}
+			page.orderBy(pageColumn).limit(pageSize);
+			pageRows = 0;
+			try (PreparedStatement stmt = page.prepare(con)) {
+				OperationDeadline.Watch watch = OperationDeadline.watch(stmt);
+				try {
+					fetchStrategy.apply(con, stmt, ReconFetchStrategy.Mode.PAGED);
+					OperationDeadline.apply(stmt);
+					ResultSet rs = stmt.executeQuery();
+					//all pages have the columns of the first page, the labels are resolved once
+					if (reader == null) {
+						reader = sink.reader(mapperPlan.bind(rs.getMetaData(), dictionary));
+					}
+					int keyIndex = rs.findColumn(pageColumn);
+					while (rs.next()) {
+						lastKey = rs.getObject(keyIndex);
+						reader.read(rs);
+						pageRows++;
+					}
+					reader.finish();
+				} finally {
+					watch.close();
+				}
 			}
-  		}
+			rowCount += pageRows;
+			ConnectorMetrics.getInstance().recordRows(pageRows);
+			if (pageRows > 0 && lastKey == null) {
+				throw new ConnectorException("pageColumn " + pageColumn + " has null values, it cannot be used for paging");
+			}
+			if (checkpoint != null && pageRows > 0) {
+				//the page must be notified before its key is recorded
+				sink.drain();
+				checkpoint.save(lastKey, pageRows);
+			}
+			logger.debug("Recon page of " + pageRows + " rows read, last " + pageColumn + " " + lastKey);
+		} while (pageRows == pageSize);
+		if (checkpoint != null) {
+			checkpoint.complete();
+		}
 
-		return oneRowResultMap;
+		return rowCount;
 	}
 	/**
-	 * accountReconcile to process account reconcile
+	 * objectReconcile to process account, user or entitlement reconcile
 	 * @param configData the configData This is a metadata that contains the details of the information required 
 			  and configurations needed for establishing the connectivity to the target system and for doing provisioning and reconciliation operations. 
 	          This is defined in setConfig().These appear as JSON or fields on the UI that have to be inputed at the time of creating the connection for this connector in SSM
@@ -1112,27 +1492,29 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
 			  Along with connection attributes, this parameter also contains some additional information (key value pairs) that can be used during
               provisioning,reconciliation etc. e.g IMPORTABLE_OBJECT - This signifies whether account recon or user recon is happening. Valid values ("ACCOUNT","USER") 
               endpointId -  contains endpoint Id for the endpoint corresponding to this connector
+	 * @param importableObject ACCOUNT, USER or ENTITLEMENT
 	 * @return Map
 	 * @throws ConnectorException
 	 */
-	private void accountReconcile(Map<String, Object> configData,
-			Map<String, Object> data) throws ConnectorException {
-		logger.debug("Enter DatabaseConnectorService accountReconcile" + data);
+	private void objectReconcile(Map<String, Object> configData,
+			Map<String, Object> data, String importableObject) throws ConnectorException {
+		logger.debug("Enter DatabaseConnectorService objectReconcile " + importableObject + data);
 
 		try {
 			logger.debug("dataFromEcm" + data);
-			 processAccountReconcile(configData, data,
-					Long.valueOf(data.get("endpointId").toString()));
+			 processReconcile(configData, data,
+					Long.valueOf(data.get("endpointId").toString()), importableObject);
 
-			logger.info("End DatabaseConnectorService accountReconcile");
+			logger.info("End DatabaseConnectorService objectReconcile " + importableObject);
 
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
-			throw new ConnectorException(e);
+			throw OperationDeadline.translate(e);
 		}
  	}
 	/**
-	 * processAccountReconcile to process account reconcile
+	 * processReconcile to process the reconcile of an importable object, see ReconPlan for the recon JSON of
+	 * each importable object
 	 * @param configData the configData This is a metadata that contains the details of the information required 
 			  and configurations needed for establishing the connectivity to the target system and for doing provisioning and reconciliation operations. 
 	          This is defined in setConfig().These appear as JSON or fields on the UI that have to be inputed at the time of creating the connection for this connector in SSM
@@ -1142,36 +1524,187 @@ public class MySQLDBExampleConnector extends BaseConnectorSpecification {
               provisioning,reconciliation etc. e.g IMPORTABLE_OBJECT - This signifies whether account recon or user recon is happening. Valid values ("ACCOUNT","USER") 
               endpointId -  contains endpoint Id for the endpoint corresponding to this connector
 	 * @param endPointId
+	 * @param importableObject ACCOUNT, USER or ENTITLEMENT
 	 * @return
 	 */
-	private void processAccountReconcile(Map<String, Object> configData,
-			Map<String, Object> data, Long endPointId) {
+	private void processReconcile(Map<String, Object> configData,
+			Map<String, Object> data, Long endPointId, String importableObject) {
 	 
-		JSONObject jsonObject = new JSONObject(data.get("ReconcileJSON").toString());
-		Map<String, Object> tempdata = jsonObject.toMap();
 		Connection con = null;
 		Date lastRunDate = null;
+		ReconPipeline pipeline = null;
+		ReconSnapshot snapshot = null;
+		ReconPlan plan = null;
+		OperationDeadline deadline = null;
+		EndpointGuard guard = null;
+		ReplicaRouter.Route route = null;
+		ReconRowCounter counter = null;
+		ConnectorMetrics.Sample sample = ConnectorMetrics.start("reconcile");
+		long start = System.nanoTime();
 
 		try {
-			con = getConnection(data);
-			 
-			List<List<Map<String, Object>>> temp = mapPropertiesToSaviynt(tempdata, con, lastRunDate);
-			
+			plan = ConnectorConfigPlan.forData(data).getRecon(importableObject);
+			if (plan.isSkipped()) {
+				logger.info(importableObject + " recon skipped for endpoint " + endPointId
+						+ ", its rows are notified by the ACCOUNT recon of " + plan.getSource());
+				sample.succeeded();
+				return;
+			}
+			Map<String, Object> tempdata = plan.getConfig();
+			//checkpoints, snapshots and metrics of USER and ENTITLEMENT recons are kept apart from the ACCOUNT ones
+			String reconName = plan.reconName(endPointId.toString());
+			//timeoutSeconds in ReconcileJSON bounds the whole recon, its statements are cancelled when it passes
+			deadline = OperationDeadline.start(reconName, plan.getTimeoutMillis());
+			//a recon does not take a slot of the endpoint, it is rejected while the endpoint is failing
+			EndpointGuard endpointGuard = EndpointGuard.forData(data);
+			if (endpointGuard.isOpen()) {
+				throw new ConnectorException("Endpoint " + endPointId + " is failing, circuit open, " + importableObject
+						+ " recon rejected");
+			}
+			//the recon reads from a replica in sync when replicaUrl is set, unless useReplica is false in ReconcileJSON
+			route = tempdata.get("useReplica") == null || isTrue(tempdata.get("useReplica"))
+					? ReplicaRouter.forData(data).route(data, importableObject + " recon")
+					: ReplicaRouter.primary(data);
+			//only a recon read from the primary tells whether the endpoint is failing
+			guard = route.isReplica() ? null : endpointGuard;
+			//incremental recon : only rows changed since the last successful recon of this endpoint are read
+			if ("incremental".equalsIgnoreCase(String.valueOf(tempdata.get("reconType")))) {
+				lastRunDate = RepositoryReconService.getLastRunDate(endPointId.toString());
+				if (lastRunDate != null && route.isReplica()) {
+					//rows written on the primary just before the last run may have reached the replica after it
+					lastRunDate = new Date(lastRunDate.getTime() - route.getMaxLagMillis());
+				}
+				logger.info("Incremental recon for endpoint " + endPointId + " last run date " + lastRunDate);
+			}
 			// notify of connector MS process the reconcile data
 			/*
-			 * temp sample format: [[{ACCOUNT.CUSTOMPROPERTY2=XXXX, ACCOUNT.CUSTOMPROPERTY1=XXXX, ACCOUNT.NAME=XXXX},
+			 * notified rows sample format: [[{ACCOUNT.CUSTOMPROPERTY2=XXXX, ACCOUNT.CUSTOMPROPERTY1=XXXX, ACCOUNT.NAME=XXXX},
 			 *                          {ENTITLEMENT.NAME=XXXX, ENTITLEMENT.ENTITLEMENTTYPE=XXXX, ENTITLEMENT.ENTITLEMENT_VALUE=XXXX},
 			 *                           {ACCOUNT_ATTRIBUTES.ATTRIBUTE_VALUE=XXXX, ACCOUNT_ATTRIBUTES.NAME=XXXX, ACCOUNT_ATTRIBUTES.ATTRIBUTE_NAME=XXXX},
 			 *                            {USERS.USERNAME=XXXX}]]
 			 * endPointId : Retrieved from data object                           
+			 * With streamRecon set to true in ReconcileJSON the rows are notified in chunks of batchSize rows
+			 * while the query is still being read, otherwise all rows are notified at once after the query is read.
+			 * With mapperThreads set in ReconcileJSON the rows are mapped by a pool of threads while the query is
+			 * still being read, see ReconPipeline.
+			 * With changedOnly set to true in ReconcileJSON an incremental recon only notifies the accounts that
+			 * are new or changed since the last recon, see ReconChangeFilter. A full recon (no last run date)
+			 * notifies every account as SSM treats the accounts it does not notify as removed.
+			 * With groupByProperty set in ReconcileJSON consecutive rows of the same account are notified as one
+			 * row, see ReconGroupingSink.
+			 * A query reading every column of one table only reads the columns used by the mapper, unless
+			 * projection is set to false in ReconcileJSON, see ReconProjection.
+			 * Values of low-cardinality columns are interned per recon, up to internMaxValues (default 1024)
+			 * distinct values per column, 0 to disable, see ReconDictionary.
+			 * With the replicaUrl connection attribute set the recon reads from a replica in sync with the
+			 * primary, unless useReplica is set to false in ReconcileJSON, see ReplicaRouter.
 			 */
-			RepositoryReconService.notify(temp, endPointId, null, data);
+			int chunkSize = isTrue(tempdata.get("streamRecon")) ? plan.getChunkSize() : Integer.MAX_VALUE;
+			ReconBatchNotifier notifier = new ReconBatchNotifier(endPointId, data, chunkSize);
+			ReconRowSink sink = notifier;
+			String groupByProperty = tempdata.get("groupByProperty") != null
+					? tempdata.get("groupByProperty").toString() : null;
+			ReconChangeFilter changeFilter = null;
+			if (isTrue(tempdata.get("changedOnly"))) {
+				snapshot = ReconSnapshot.open(reconName);
+				//merged rows are keyed by their account
+				changeFilter = new ReconChangeFilter(notifier, snapshot,
+						tempdata.get("snapshotKey") != null ? tempdata.get("snapshotKey").toString() : groupByProperty,
+						lastRunDate != null);
+				sink = changeFilter;
+			}
+			ReconGroupingSink grouping = null;
+			if (groupByProperty != null) {
+				grouping = new ReconGroupingSink(sink, groupByProperty);
+				sink = grouping;
+			}
+			//counts the rows built by the mapper, on the mapper threads of the pipeline when there is one
+			counter = new ReconRowCounter(sink);
+			sink = counter;
+			int mapperThreads = tempdata.get("mapperThreads") != null
+					? Integer.parseInt(tempdata.get("mapperThreads").toString()) : 0;
+			if (mapperThreads > 0) {
+				int queueSize = tempdata.get("pipelineQueueSize") != null
+						? Integer.parseInt(tempdata.get("pipelineQueueSize").toString()) : 16;
+				pipeline = new ReconPipeline(sink, mapperThreads, queueSize);
+				sink = pipeline;
+			}
+			//values repeated across rows are kept once for the duration of the recon
+			int internMaxValues = tempdata.get("internMaxValues") != null
+					? Integer.parseInt(tempdata.get("internMaxValues").toString())
+					: ReconDictionary.DEFAULT_MAX_VALUES;
+			ReconDictionary dictionary = internMaxValues > 0 ? new ReconDictionary(internMaxValues) : null;
+			long rowCount;
+			if (tempdata.get("partitionColumn") != null && tempdata.get("partitionCount") != null
+					&& Integer.parseInt(tempdata.get("partitionCount").toString()) > 1) {
+				//parallel recon : slices of the query are read concurrently on separate connections
+				rowCount = partitionedReconcile(route.getData(), plan, reconName, lastRunDate, dictionary, sink);
+			} else {
+				con = getReconConnection(route.getData());
+				rowCount = mapPropertiesToSaviynt(plan, reconName, con, lastRunDate, dictionary, sink);
+			}
+			sink.flush();
+			if (dictionary != null) {
+				logger.info("Recon interned " + dictionary.getInterned() + " repeated values of "
+						+ dictionary.getLowCardinalityColumns() + " low-cardinality columns");
+			}
+			if (grouping != null) {
+				logger.info("Recon merged " + grouping.getRows() + " rows into " + grouping.getGroups() + " accounts");
+			}
+			if (changeFilter != null) {
+				//an incremental recon reads the changed rows only, the rows it did not read are not removed
+				changeFilter.complete(lastRunDate == null);
+			}
+			if (plan.getFetchStrategy().isCheckpoint()) {
+				//the recon is complete, the next one starts from the first page. A full recon also drops the
+				//checkpoints left by a failed incremental recon, as it read all their rows
+				ReconCheckpoint.clear(reconName);
+			}
+			ConnectorMetrics.getInstance().recordRecon(reconName, rowCount, counter.getMappedRows(),
+					notifier.getNotifiedRows(), System.nanoTime() - start);
+			if (plan.getProjection() != null) {
+				ConnectorMetrics.getInstance().recordProjection(plan.getProjection().getSkippedColumns(),
+						plan.getProjection().estimateBytesSaved(rowCount));
+			}
+			logger.info(importableObject + " recon read " + rowCount + " rows for endpoint " + endPointId);
+			if (guard != null) {
+				guard.record(null);
+			}
+			sample.succeeded();
 
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
-			throw new ConnectorException(e);
+			if (plan != null) {
+				//the columns of the table may have changed
+				plan.resetProjection();
+			}
+			ConnectorException failure = OperationDeadline.translate(e);
+			if (guard != null) {
+				guard.record(failure);
+			}
+			if (route != null) {
+				route.failed();
+			}
+			throw failure;
 
 		} finally {
+			if (deadline != null) {
+				deadline.close();
+			}
+			if (pipeline != null) {
+				pipeline.close();
+			}
+			if (counter != null) {
+				ConnectorMetrics.getInstance().recordMappedRows(counter.getMappedRows());
+			}
+			sample.close();
+			if (snapshot != null) {
+				try {
+					snapshot.close();
+				} catch (IOException e) {
+					logger.error("Unable to close the recon snapshot " + e.getMessage(), e);
+				}
+			}
 			if (con != null) {
 				try {
 					con.close();
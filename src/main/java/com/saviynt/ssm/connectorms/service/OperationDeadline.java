@@ -0,0 +1,223 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.saviynt.ssm.abstractConnector.exceptions.ConnectorException;
+import com.saviynt.ssm.abstractConnector.exceptions.OperationTimeoutException;
+
+/**
+ * OperationDeadline is the deadline of the operation running on the current thread, so that a locked row or a
+ * slow target system cannot hold a worker thread for ever.
+ * try (OperationDeadline deadline = OperationDeadline.start("UpdateAccountJSON", timeoutMillis)) {
+ *     ...
+ * }
+ * While the deadline is open every statement of the thread gets the remaining time as query timeout (apply()),
+ * statements read for a long time such as the recon query are cancelled by a watchdog when the deadline passes
+ * (watch()) and borrowing a pooled connection waits no longer than the remaining time.
+ * A deadline opened inside another one never ends after the outer one.
+ * Failures of an operation whose deadline passed, and SQLTimeoutExceptions, are translated into
+ * OperationTimeoutException by translate().
+ */
+public final class OperationDeadline implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(OperationDeadline.class);
+
+	private static final ThreadLocal<OperationDeadline> CURRENT = new ThreadLocal<OperationDeadline>();
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "MySQLDBExampleConnector-deadline-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String operation;
+	/** System.nanoTime() of the deadline, Long.MAX_VALUE for none */
+	private final long deadline;
+	private final OperationDeadline previous;
+
+	private OperationDeadline(String operation, long deadline, OperationDeadline previous) {
+		this.operation = operation;
+		this.deadline = deadline;
+		this.previous = previous;
+	}
+
+	/**
+	 * to open the deadline of an operation on the current thread, to be closed when the operation ends
+	 *
+	 * @param operation the operation e.g. UpdateAccountJSON
+	 * @param timeoutMillis the time the operation may take, 0 or less for no limit
+	 * @return the deadline
+	 */
+	public static OperationDeadline start(String operation, long timeoutMillis) {
+		OperationDeadline previous = CURRENT.get();
+		long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+				: Long.MAX_VALUE;
+		if (previous != null && previous.deadline - deadline < 0) {
+			deadline = previous.deadline;
+		}
+		OperationDeadline opened = new OperationDeadline(operation, deadline, previous);
+		CURRENT.set(opened);
+		return opened;
+	}
+
+	/**
+	 * to open on a worker thread the deadline of the operation that started the work
+	 *
+	 * @param parent the deadline of the operation, may be null
+	 * @return the deadline of the worker thread, to be closed when the work ends
+	 */
+	public static OperationDeadline inherit(OperationDeadline parent) {
+		if (parent == null) {
+			return start("worker", 0);
+		}
+		OperationDeadline opened = new OperationDeadline(parent.operation, parent.deadline, CURRENT.get());
+		CURRENT.set(opened);
+		return opened;
+	}
+
+	/**
+	 * @return the deadline of the current thread, null when no operation deadline is open
+	 */
+	public static OperationDeadline current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * @return the time left, Long.MAX_VALUE when the operation has no limit
+	 */
+	public long remainingMillis() {
+		if (deadline == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+	}
+
+	/**
+	 * @return true when the deadline has passed
+	 */
+	public boolean isExpired() {
+		return deadline != Long.MAX_VALUE && deadline - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * to set the remaining time of the current deadline as query timeout of a statement. Cached statements are
+	 * reused by operations with other deadlines, so the timeout is set even when there is none.
+	 *
+	 * @param stmt the statement about to be executed
+	 * @throws SQLTimeoutException when the deadline has already passed
+	 */
+	public static void apply(Statement stmt) throws SQLException {
+		OperationDeadline current = CURRENT.get();
+		if (current == null || current.deadline == Long.MAX_VALUE) {
+			stmt.setQueryTimeout(0);
+			return;
+		}
+		long remaining = current.remainingMillis();
+		if (remaining <= 0) {
+			throw new SQLTimeoutException(current.operation + " exceeded its deadline");
+		}
+		//query timeouts are in whole seconds, rounded up so that the database does not time out first
+		stmt.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, TimeUnit.MILLISECONDS.toSeconds(remaining + 999)));
+	}
+
+	/**
+	 * to cancel a statement when the current deadline passes, e.g. a recon query whose rows are still read
+	 * long after it was executed
+	 *
+	 * @param stmt the statement to watch
+	 * @return the watch, to be closed once the statement is done with
+	 */
+	public static Watch watch(Statement stmt) {
+		OperationDeadline current = CURRENT.get();
+		if (current == null || current.deadline == Long.MAX_VALUE) {
+			return new Watch(null);
+		}
+		String operation = current.operation;
+		ScheduledFuture<?> cancel = WATCHDOG.schedule(() -> {
+			try {
+				logger.info("Cancelling the statement of " + operation + ", its deadline has passed");
+				stmt.cancel();
+			} catch (SQLException | RuntimeException e) {
+				logger.debug("Unable to cancel the statement of " + operation + " " + e.getMessage());
+			}
+		}, Math.max(0, current.deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		return new Watch(cancel);
+	}
+
+	/**
+	 * @param defaultMillis the configured connection acquire timeout
+	 * @return the time to wait for a connection, bounded by the current deadline
+	 */
+	public static long acquireTimeoutMillis(long defaultMillis) {
+		OperationDeadline current = CURRENT.get();
+		return current == null ? defaultMillis : Math.min(defaultMillis, Math.max(0, current.remainingMillis()));
+	}
+
+	/**
+	 * @param failure the failure of an operation
+	 * @return the OperationTimeoutException when the failure is a timeout or the current deadline has passed,
+	 *         null otherwise
+	 */
+	public static OperationTimeoutException timeoutOf(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof OperationTimeoutException) {
+				return (OperationTimeoutException) cause;
+			}
+			if (cause instanceof SQLTimeoutException) {
+				return new OperationTimeoutException(cause.getMessage(), failure);
+			}
+		}
+		OperationDeadline current = CURRENT.get();
+		if (current != null && current.isExpired() && failure instanceof Exception) {
+			//a statement cancelled by the watchdog fails with a driver specific exception
+			return new OperationTimeoutException(current.operation + " exceeded its deadline", failure);
+		}
+		return null;
+	}
+
+	/**
+	 * to translate the failure of an operation into the exception thrown by the connector
+	 *
+	 * @param failure the failure of an operation
+	 * @return an OperationTimeoutException for timeouts, otherwise a ConnectorException wrapping the failure
+	 */
+	public static ConnectorException translate(Throwable failure) {
+		OperationTimeoutException timeout = timeoutOf(failure);
+		return timeout != null ? timeout : new ConnectorException(failure);
+	}
+
+	@Override
+	public void close() {
+		if (previous != null) {
+			CURRENT.set(previous);
+		} else {
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * the scheduled cancel of a watched statement
+	 */
+	public static final class Watch implements AutoCloseable {
+		private final ScheduledFuture<?> cancel;
+
+		private Watch(ScheduledFuture<?> cancel) {
+			this.cancel = cancel;
+		}
+
+		@Override
+		public void close() {
+			if (cancel != null) {
+				cancel.cancel(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * ProvisioningQuery is one rendered query of an operation JSON such as CreateAccountJSON.
+ * Entries of the query array are either a query template rendered into plain SQL
+ *   {'query':['insert into accounts (name) values (\'${ACCOUNTNAME}\')']}
+ * or a parameterized query with ? placeholders and the list of values to bind
+ *   {'query':[{'sql':'insert into accounts (name, email) values (?, ?)','params':['${ACCOUNTNAME}','${user.email}']}]}
+ * A param made of a single ${name} reference binds the value of name itself, other params are rendered as templates.
+ * Parameterized queries are executed with prepared statements taken from the statement cache of the pooled
+ * connection, so the target database parses them once per connection and values never need quoting.
+ * The queries of one operation are executed in one transaction (jdbc.provisioning.transactional, default true) :
+ * they are applied together or not at all, with one commit instead of one per query.
+ * Statements get the remaining time of the deadline of the operation as query timeout, see OperationDeadline.
+ */
+public final class ProvisioningQuery {
+
+	private static final boolean TRANSACTIONAL = ConnectorSettings.getBoolean("jdbc.provisioning.transactional", true);
+
+	private final String sql;
+	/** values to bind, null for a plain query */
+	private final Object[] params;
+
+	private ProvisioningQuery(String sql, Object[] params) {
+		this.sql = sql;
+		this.params = params;
+	}
+
+	/**
+	 * to render one entry of the query array of an operation JSON
+	 *
+	 * @param entry a query template string or a {'sql':..., 'params':[...]} object
+	 * @param data the data map of the operation
+	 * @return the rendered query
+	 * @throws Exception when a template cannot be rendered
+	 */
+	public static ProvisioningQuery render(Object entry, Map<String, Object> data) throws Exception {
+		return compile(entry).render(data);
+	}
+
+	/**
+	 * to parse one entry of the query array of an operation JSON
+	 *
+	 * @param entry a query template string or a {'sql':..., 'params':[...]} object
+	 * @return the parsed entry
+	 */
+	public static Compiled compile(Object entry) {
+		if (entry instanceof JSONObject) {
+			JSONObject parameterized = (JSONObject) entry;
+			JSONArray paramTemplates = parameterized.optJSONArray("params");
+			TemplateExpression[] params = new TemplateExpression[paramTemplates == null ? 0 : paramTemplates.length()];
+			for (int i = 0; i < params.length; i++) {
+				params[i] = TemplateExpression.compile(paramTemplates.getString(i));
+			}
+			return new Compiled(null, parameterized.getString("sql"), params);
+		}
+		return new Compiled(TemplateExpression.compile(entry.toString()), null, null);
+	}
+
+	/**
+	 * to parse the query array of an operation JSON
+	 *
+	 * @param json the operation JSON e.g. the value of CreateAccountJSON
+	 * @return the parsed entries, in order
+	 */
+	public static List<Compiled> compileAll(String json) {
+		JSONArray query = new JSONObject(json).getJSONArray("query");
+		List<Compiled> compiled = new ArrayList<Compiled>(query.length());
+		for (int i = 0; i < query.length(); i++) {
+			compiled.add(compile(query.get(i)));
+		}
+		return Collections.unmodifiableList(compiled);
+	}
+
+	/**
+	 * Compiled is one entry of the query array parsed once, it is immutable and rendered with the data map of
+	 * each operation.
+	 */
+	public static final class Compiled {
+
+		/** template of a plain query, null for a parameterized query */
+		private final TemplateExpression template;
+		private final String sql;
+		private final TemplateExpression[] params;
+
+		private Compiled(TemplateExpression template, String sql, TemplateExpression[] params) {
+			this.template = template;
+			this.sql = sql;
+			this.params = params;
+		}
+
+		/**
+		 * @return true when the entry is a parameterized query
+		 */
+		public boolean isParameterized() {
+			return params != null;
+		}
+
+		/**
+		 * to render the entry with the data of an operation
+		 *
+		 * @param data the data map of the operation
+		 * @return the rendered query
+		 * @throws Exception when a template cannot be rendered
+		 */
+		public ProvisioningQuery render(Map<String, Object> data) throws Exception {
+			if (params == null) {
+				return new ProvisioningQuery(template.evaluate(data), null);
+			}
+			Object[] values = new Object[params.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = params[i].value(data);
+			}
+			return new ProvisioningQuery(sql, values);
+		}
+	}
+
+	/**
+	 * @return the sql of the query
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return true when the query has ? placeholders bound with values
+	 */
+	public boolean isParameterized() {
+		return params != null;
+	}
+
+	/**
+	 * to execute queries in order as JDBC batches. Consecutive plain queries are executed as one Statement batch,
+	 * consecutive parameterized queries with the same sql as one PreparedStatement batch.
+	 *
+	 * @param con connection to the target system
+	 * @param queries the rendered queries
+	 * @return the number of queries executed
+	 * @throws SQLException
+	 */
+	public static int executeBatch(Connection con, List<ProvisioningQuery> queries) throws SQLException {
+		int executed = 0;
+		int from = 0;
+		while (from < queries.size()) {
+			ProvisioningQuery first = queries.get(from);
+			int to = from + 1;
+			while (to < queries.size() && first.sameBatch(queries.get(to))) {
+				to++;
+			}
+			List<ProvisioningQuery> batch = queries.subList(from, to);
+			executed += first.isParameterized() ? executePrepared(con, first.sql, batch) : executePlain(con, batch);
+			from = to;
+		}
+		return executed;
+	}
+
+	/**
+	 * to execute the queries of one operation as executeBatch() does, in one transaction
+	 *
+	 * @param con connection to the target system, in auto commit mode
+	 * @param queries the rendered queries
+	 * @return the number of queries executed
+	 * @throws SQLException when a query fails, none of the queries is applied
+	 */
+	public static int executeTransaction(Connection con, List<ProvisioningQuery> queries) throws SQLException {
+		return transaction(con, queries.size(), () -> executeBatch(con, queries));
+	}
+
+	/**
+	 * to run work executing statements in one transaction. When the connection is already in a transaction,
+	 * when there is a single statement or when jdbc.provisioning.transactional is false, the work runs as it is.
+	 *
+	 * @param con connection to the target system
+	 * @param statements the number of statements executed by the work
+	 * @param work the statements to execute
+	 * @return the result of the work
+	 * @throws SQLException when the work fails, the transaction is rolled back
+	 */
+	public static <T> T transaction(Connection con, int statements, Work<T> work) throws SQLException {
+		if (!TRANSACTIONAL || statements <= 1 || !con.getAutoCommit()) {
+			T result = work.run();
+			if (con.getAutoCommit()) {
+				ConnectorMetrics.getInstance().recordAutoCommit(statements);
+			}
+			return result;
+		}
+		con.setAutoCommit(false);
+		try {
+			T result = work.run();
+			commit(con, statements);
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			rollback(con, e);
+			throw e;
+		} finally {
+			con.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * to commit the transaction of a connection, the commit is timed in ConnectorMetrics
+	 *
+	 * @param con connection to the target system, not in auto commit mode
+	 * @param statements the number of statements of the transaction
+	 * @throws SQLException
+	 */
+	public static void commit(Connection con, int statements) throws SQLException {
+		long start = System.nanoTime();
+		con.commit();
+		ConnectorMetrics.getInstance().recordCommit(statements, System.nanoTime() - start);
+	}
+
+	/**
+	 * to roll back the transaction of a connection after a failure
+	 *
+	 * @param con connection to the target system, not in auto commit mode
+	 * @param failure the failure of the transaction, a failed rollback is added to it as suppressed
+	 */
+	public static void rollback(Connection con, Exception failure) {
+		ConnectorMetrics.getInstance().recordRollback();
+		try {
+			con.rollback();
+		} catch (SQLException e) {
+			failure.addSuppressed(e);
+		}
+	}
+
+	/**
+	 * statements executed by transaction()
+	 */
+	@FunctionalInterface
+	public interface Work<T> {
+		T run() throws SQLException;
+	}
+
+	/**
+	 * to execute queries one by one asking the driver for the keys they generate, e.g. the auto increment
+	 * accountidentifier of the insert of CreateAccountJSON. Drivers that do not support generated keys execute the
+	 * queries as executeBatch() does.
+	 *
+	 * @param con connection to the target system
+	 * @param queries the rendered queries
+	 * @return the generated keys of the last query that generated any, column label to value, empty when none
+	 * @throws SQLException
+	 */
+	public static Map<String, Object> executeReturningKeys(Connection con, List<ProvisioningQuery> queries)
+			throws SQLException {
+		if (!con.getMetaData().supportsGetGeneratedKeys()) {
+			executeBatch(con, queries);
+			return Collections.emptyMap();
+		}
+		Map<String, Object> generatedKeys = Collections.emptyMap();
+		for (ProvisioningQuery query : queries) {
+			if (query.isParameterized()) {
+				try (PreparedStatement stmt = con.prepareStatement(query.sql, Statement.RETURN_GENERATED_KEYS)) {
+					OperationDeadline.apply(stmt);
+					query.bind(stmt);
+					stmt.execute();
+					generatedKeys = readKeys(stmt, generatedKeys);
+				}
+			} else {
+				try (Statement stmt = con.createStatement()) {
+					OperationDeadline.apply(stmt);
+					stmt.execute(query.sql, Statement.RETURN_GENERATED_KEYS);
+					generatedKeys = readKeys(stmt, generatedKeys);
+				}
+			}
+		}
+		return generatedKeys;
+	}
+
+	private static Map<String, Object> readKeys(Statement stmt, Map<String, Object> previous) throws SQLException {
+		try (ResultSet keys = stmt.getGeneratedKeys()) {
+			if (keys == null || !keys.next()) {
+				return previous;
+			}
+			ResultSetMetaData metaData = keys.getMetaData();
+			Map<String, Object> generatedKeys = new LinkedHashMap<String, Object>();
+			for (int i = 1; i <= metaData.getColumnCount(); i++) {
+				generatedKeys.put(metaData.getColumnLabel(i), keys.getObject(i));
+			}
+			return generatedKeys;
+		}
+	}
+
+	private void bind(PreparedStatement stmt) throws SQLException {
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] == null) {
+				stmt.setNull(i + 1, Types.VARCHAR);
+			} else {
+				stmt.setObject(i + 1, params[i]);
+			}
+		}
+	}
+
+	private boolean sameBatch(ProvisioningQuery other) {
+		return isParameterized() ? other.isParameterized() && sql.equals(other.sql) : !other.isParameterized();
+	}
+
+	private static int executePlain(Connection con, List<ProvisioningQuery> batch) throws SQLException {
+		try (Statement stmt = con.createStatement()) {
+			OperationDeadline.apply(stmt);
+			for (ProvisioningQuery query : batch) {
+				stmt.addBatch(query.sql);
+			}
+			return stmt.executeBatch().length;
+		}
+	}
+
+	private static int executePrepared(Connection con, String sql, List<ProvisioningQuery> batch) throws SQLException {
+		ConnectionPoolManager poolManager = ConnectionPoolManager.getInstance();
+		boolean cached = poolManager.isCaching(con);
+		PreparedStatement stmt = poolManager.prepareCached(con, sql);
+		try {
+			OperationDeadline.apply(stmt);
+			for (ProvisioningQuery query : batch) {
+				query.bind(stmt);
+				stmt.addBatch();
+			}
+			return stmt.executeBatch().length;
+		} finally {
+			if (cached) {
+				stmt.clearBatch();
+				stmt.clearParameters();
+			} else {
+				stmt.close();
+			}
+		}
+	}
+
+	/**
+	 * to render all entries of the query array of an operation JSON
+	 *
+	 * @param json the operation JSON e.g. the value of CreateAccountJSON
+	 * @param data the data map of the operation
+	 * @return the rendered queries
+	 * @throws Exception when a template cannot be rendered
+	 */
+	public static List<ProvisioningQuery> renderAll(String json, Map<String, Object> data) throws Exception {
+		return renderAll(compileAll(json), data);
+	}
+
+	/**
+	 * to render parsed entries of the query array of an operation JSON
+	 *
+	 * @param compiled the parsed entries, see compileAll()
+	 * @param data the data map of the operation
+	 * @return the rendered queries
+	 * @throws Exception when a template cannot be rendered
+	 */
+	public static List<ProvisioningQuery> renderAll(List<Compiled> compiled, Map<String, Object> data)
+			throws Exception {
+		List<ProvisioningQuery> queries = new ArrayList<ProvisioningQuery>(compiled.size());
+		for (Compiled entry : compiled) {
+			queries.add(entry.render(data));
+		}
+		return queries;
+	}
+}
@@ -0,0 +1,85 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.saviynt.ssm.abstractConnector.RepositoryReconService;
+
+/**
+ * ReconBatchNotifier buffers mapped rows and hands them to RepositoryReconService.notify() in chunks
+ * of at most chunkSize rows, so the heap used by a recon is bounded by the chunk size instead of the table size.
+ * A chunk size of Integer.MAX_VALUE keeps the previous behaviour of a single notify() for the whole recon.
+ * At least one notify() call is always made so that SSM sees the end of an empty recon.
+ * accept() and flush() are synchronized so that several readers can share one notifier.
+ */
+public class ReconBatchNotifier implements ReconRowSink {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final Long endPointId;
+	private final Map<String, Object> data;
+	private final int chunkSize;
+	private List<List<Map<String, Object>>> chunk;
+	private long notifiedRows;
+	private int notifyCalls;
+
+	/**
+	 * @param endPointId endpoint Id passed to notify()
+	 * @param data the data map passed to notify()
+	 * @param chunkSize maximum number of rows per notify() call
+	 */
+	public ReconBatchNotifier(Long endPointId, Map<String, Object> data, int chunkSize) {
+		this.endPointId = endPointId;
+		this.data = data;
+		this.chunkSize = chunkSize > 0 ? chunkSize : Integer.MAX_VALUE;
+		this.chunk = newChunk();
+	}
+
+	@Override
+	public synchronized void accept(List<Map<String, Object>> row) throws Exception {
+		chunk.add(row);
+		if (chunk.size() >= chunkSize) {
+			notifyChunk();
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws Exception {
+		if (!chunk.isEmpty() || notifyCalls == 0) {
+			notifyChunk();
+		}
+		logger.info("Recon notified " + notifiedRows + " rows in " + notifyCalls + " chunks for endpoint " + endPointId);
+	}
+
+	@Override
+	public synchronized void drain() throws Exception {
+		if (!chunk.isEmpty()) {
+			notifyChunk();
+		}
+	}
+
+	/**
+	 * @return the number of rows handed to notify() so far
+	 */
+	public synchronized long getNotifiedRows() {
+		return notifiedRows;
+	}
+
+	private void notifyChunk() throws Exception {
+		List<List<Map<String, Object>>> toNotify = chunk;
+		chunk = newChunk();
+		// notify of connector MS process the reconcile data
+		RepositoryReconService.notify(toNotify, endPointId, null, data);
+		notifiedRows += toNotify.size();
+		notifyCalls++;
+		logger.debug("Recon notified chunk of " + toNotify.size() + " rows for endpoint " + endPointId);
+	}
+
+	private List<List<Map<String, Object>>> newChunk() {
+		return new ArrayList<List<Map<String, Object>>>(Math.min(chunkSize, 1024));
+	}
+}
@@ -0,0 +1,188 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReconChangeFilter is the sink of a changed-only recon (changedOnly in ReconcileJSON) : in an incremental recon
+ * it hands to the downstream sink only the rows of new accounts and of accounts whose mapped row changed since
+ * the last recon, according to the ReconSnapshot of the endpoint.
+ * A full recon hands over every row, as SSM treats the accounts a full recon does not notify as removed, and only
+ * brings the snapshot up to date : the accounts it did not read are dropped from the snapshot.
+ * The snapshot is only updated with the hash of a row once the downstream sink has notified it (drain() or
+ * flush() returned), so a failed notify() leaves the account changed for the next recon.
+ * The key of a row is the values of the mapped properties listed in snapshotKey of ReconcileJSON, comma
+ * separated, and must be unique among the rows of a recon. By default it is the account name (ACCOUNTS.NAME or
+ * ACCOUNT.NAME, USERS.USERNAME in a USER recon) followed by the entitlement values of the row (mapped properties
+ * named ENTITLEMENT_VALUE), so a recon with one row per account entitlement keys every row. Only the hash of
+ * the key is kept in the snapshot. Rows without any of these are always handed over.
+ * accept(), drain() and flush() are synchronized so that several readers can share one filter.
+ */
+public class ReconChangeFilter implements ReconRowSink {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final String[] NAMES = { "ACCOUNTS.NAME", "ACCOUNT.NAME", "USERS.USERNAME", "USER.USERNAME" };
+	private static final String ENTITLEMENT_VALUE = ".ENTITLEMENT_VALUE";
+
+	private final ReconRowSink downstream;
+	private final ReconSnapshot snapshot;
+	private final String[] keyProperties;
+	private final boolean skipUnchanged;
+	private final List<Change> pending = new ArrayList<Change>();
+	private long unchangedRows;
+	private long changedRows;
+
+	/**
+	 * @param downstream the sink receiving the changed rows
+	 * @param snapshot the snapshot of the endpoint, closed by the caller
+	 * @param keyProperties the mapped properties of the row key comma separated e.g. ACCOUNTS.NAME, null for the default
+	 * @param skipUnchanged true in an incremental recon, false in a full recon which hands over every row
+	 */
+	public ReconChangeFilter(ReconRowSink downstream, ReconSnapshot snapshot, String keyProperties,
+			boolean skipUnchanged) {
+		this.downstream = downstream;
+		this.snapshot = snapshot;
+		this.keyProperties = keyProperties != null ? keyProperties.toUpperCase().trim().split("\\s*,\\s*") : null;
+		this.skipUnchanged = skipUnchanged;
+	}
+
+	@Override
+	public synchronized void accept(List<Map<String, Object>> row) throws Exception {
+		String key = key(row);
+		if (key == null) {
+			downstream.accept(row);
+			changedRows++;
+			return;
+		}
+		long keyHash = ReconSnapshot.keyHash(key);
+		long rowHash = rowHash(row);
+		Long previous = snapshot.touch(keyHash);
+		if (previous != null && previous == rowHash) {
+			unchangedRows++;
+			if (skipUnchanged) {
+				return;
+			}
+			downstream.accept(row);
+			return;
+		}
+		downstream.accept(row);
+		pending.add(new Change(keyHash, rowHash));
+		changedRows++;
+	}
+
+	@Override
+	public synchronized void drain() throws Exception {
+		downstream.drain();
+		apply();
+	}
+
+	@Override
+	public synchronized void flush() throws Exception {
+		downstream.flush();
+		apply();
+		logger.info("Changed-only recon handed over " + changedRows + " changed rows, "
+				+ (skipUnchanged ? "skipped " : "handed over ") + unchangedRows + " unchanged rows");
+	}
+
+	/**
+	 * to complete the recon generation of the snapshot, to be called after flush()
+	 *
+	 * @param removeStale true when the recon read all the accounts, the accounts it did not read are removed
+	 * @throws Exception when the snapshot cannot be written
+	 */
+	public synchronized void complete(boolean removeStale) throws Exception {
+		if (removeStale) {
+			int removed = snapshot.removeStale();
+			logger.info("Removed " + removed + " keys from the recon snapshot");
+		}
+		snapshot.complete();
+	}
+
+	/**
+	 * @return the rows skipped because their account did not change
+	 */
+	public synchronized long getUnchangedRows() {
+		return unchangedRows;
+	}
+
+	private void apply() throws Exception {
+		if (pending.isEmpty()) {
+			return;
+		}
+		for (Change change : pending) {
+			snapshot.put(change.keyHash, change.rowHash);
+		}
+		pending.clear();
+		snapshot.force();
+	}
+
+	private String key(List<Map<String, Object>> row) {
+		if (keyProperties != null) {
+			StringBuilder key = new StringBuilder();
+			for (String keyProperty : keyProperties) {
+				Object value = value(row, keyProperty);
+				if (value == null) {
+					return null;
+				}
+				key.append(key.length() > 0 ? "|" : "").append(value);
+			}
+			return key.toString();
+		}
+		Object name = null;
+		for (int i = 0; i < NAMES.length && name == null; i++) {
+			name = value(row, NAMES[i]);
+		}
+		StringBuilder key = new StringBuilder(name != null ? name.toString() : "");
+		for (Map<String, Object> values : row) {
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				if (entry.getKey().endsWith(ENTITLEMENT_VALUE)) {
+					key.append(key.length() > 0 ? "|" : "").append(entry.getValue());
+				}
+			}
+		}
+		return key.length() > 0 ? key.toString() : null;
+	}
+
+	private static Object value(List<Map<String, Object>> row, String property) {
+		for (Map<String, Object> values : row) {
+			Object value = values.get(property);
+			if (value != null) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * the hash of a mapped row, independent of the order of its maps and entries
+	 */
+	static long rowHash(List<Map<String, Object>> row) {
+		long hash = 0;
+		for (Map<String, Object> values : row) {
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				long entryHash = ReconSnapshot.hash(entry.getKey(), ReconSnapshot.FNV_OFFSET);
+				entryHash = ReconSnapshot.hash(String.valueOf(entry.getValue()), entryHash * 31);
+				entryHash ^= entryHash >>> 33;
+				entryHash *= 0xff51afd7ed558ccdL;
+				entryHash ^= entryHash >>> 33;
+				hash += entryHash;
+			}
+		}
+		return hash;
+	}
+
+	private static final class Change {
+		private final long keyHash;
+		private final long rowHash;
+
+		private Change(long keyHash, long rowHash) {
+			this.keyHash = keyHash;
+			this.rowHash = rowHash;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReconCheckpoint is the progress of a paged recon (fetchStrategy paged) stored in a local file, so that a recon
+ * which fails half way resumes after the last notified page instead of reading the whole table again.
+ * Only incremental recons are checkpointed : SSM treats the accounts a full recon does not notify as removed, so
+ * a full recon resuming after the pages notified by a failed one would remove those accounts. A full recon always
+ * reads from the first page.
+ * After each page is notified the last pageColumn value is written to the checkpoint file, and the next recon of
+ * the endpoint with the same query starts after that value. The files of an endpoint are deleted once its recon
+ * completes.
+ * Files are kept in recon.checkpoint.dir of databaseconfig.properties (default MySQLDBExampleConnector-checkpoints
+ * in java.io.tmpdir), one per endpoint and query : every slice of a partitioned recon has its own file.
+ * A file is only used when it was written for the same query text, filters and pageColumn, a checkpoint of a
+ * changed ReconcileJSON is ignored. Rows changed before the checkpoint while the recon was down are picked up
+ * by the next recon.
+ * Files are replaced with an atomic move of a temporary file, a crash while writing leaves the previous checkpoint.
+ */
+public final class ReconCheckpoint {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReconCheckpoint.class);
+
+	private static final String SUFFIX = ".checkpoint";
+
+	private final Path file;
+	private final String fingerprint;
+	private Object lastKey;
+	private long rows;
+	private boolean complete;
+
+	private ReconCheckpoint(Path file, String fingerprint) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * to open the checkpoint of a paged query and load its last key when the file exists
+	 *
+	 * @param endpointId the endpoint of the recon
+	 * @param query the recon query without the paging filter
+	 * @param pageColumn the key column of the pages
+	 * @return the checkpoint
+	 * @throws IOException when the checkpoint file cannot be read
+	 */
+	public static ReconCheckpoint open(String endpointId, ReconQuery query, String pageColumn) throws IOException {
+		String fingerprint = query.toString() + " pageColumn " + pageColumn;
+		Path file = directory().resolve(prefix(endpointId) + Integer.toHexString(fingerprint.hashCode()) + SUFFIX);
+		ReconCheckpoint checkpoint = new ReconCheckpoint(file, fingerprint);
+		if (Files.exists(file)) {
+			Properties saved = new Properties();
+			try (InputStream input = Files.newInputStream(file)) {
+				saved.load(input);
+			}
+			if (fingerprint.equals(saved.getProperty("query"))) {
+				checkpoint.lastKey = decode(saved.getProperty("keyType"), saved.getProperty("key"));
+				checkpoint.rows = Long.parseLong(saved.getProperty("rows", "0"));
+				checkpoint.complete = Boolean.parseBoolean(saved.getProperty("complete"));
+				logger.info("Resuming recon of endpoint " + endpointId + " after " + pageColumn + " " + checkpoint.lastKey
+						+ ", " + checkpoint.rows + " rows already notified" + (checkpoint.complete ? ", query complete" : ""));
+			} else {
+				logger.info("Ignoring checkpoint " + file + " written for another query");
+			}
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * @return the last key of the notified pages, null to start from the first page
+	 */
+	public Object getLastKey() {
+		return lastKey;
+	}
+
+	/**
+	 * @return the rows notified before the checkpoint
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return true when all pages of the query were notified by a previous run
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * to record a notified page
+	 *
+	 * @param key the last key of the page
+	 * @param pageRows the rows of the page
+	 * @throws IOException when the checkpoint file cannot be written
+	 */
+	public void save(Object key, long pageRows) throws IOException {
+		lastKey = key;
+		rows += pageRows;
+		write();
+	}
+
+	/**
+	 * to record that all pages of the query were notified
+	 *
+	 * @throws IOException when the checkpoint file cannot be written
+	 */
+	public void complete() throws IOException {
+		complete = true;
+		write();
+	}
+
+	private void write() throws IOException {
+		Properties saved = new Properties();
+		saved.setProperty("query", fingerprint);
+		if (lastKey != null) {
+			saved.setProperty("keyType", keyType(lastKey));
+			saved.setProperty("key", lastKey.toString());
+		}
+		saved.setProperty("rows", Long.toString(rows));
+		saved.setProperty("complete", Boolean.toString(complete));
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream output = Files.newOutputStream(temp)) {
+				saved.store(output, null);
+			}
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * to delete the checkpoints of an endpoint once its recon has completed
+	 *
+	 * @param endpointId the endpoint of the recon
+	 */
+	public static void clear(String endpointId) {
+		Path directory = directory();
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix(endpointId) + "*" + SUFFIX)) {
+			for (Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		} catch (IOException e) {
+			logger.error("Unable to delete recon checkpoints of endpoint " + endpointId + " " + e.getMessage(), e);
+		}
+	}
+
+	private static Path directory() {
+		return Paths.get(ConnectorSettings.getString("recon.checkpoint.dir",
+				Paths.get(System.getProperty("java.io.tmpdir"), "MySQLDBExampleConnector-checkpoints").toString()));
+	}
+
+	private static String prefix(String endpointId) {
+		return "recon-" + String.valueOf(endpointId).replaceAll("[^A-Za-z0-9_.]", "_") + "-";
+	}
+
+	private static String keyType(Object key) {
+		if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+			return "long";
+		}
+		if (key instanceof Number) {
+			return "decimal";
+		}
+		if (key instanceof Timestamp) {
+			return "timestamp";
+		}
+		return "string";
+	}
+
+	private static Object decode(String keyType, String key) {
+		if (key == null) {
+			return null;
+		}
+		switch (String.valueOf(keyType)) {
+		case "long":
+			return Long.valueOf(key);
+		case "decimal":
+			return new BigDecimal(key);
+		case "timestamp":
+			return Timestamp.valueOf(key);
+		default:
+			return key;
+		}
+	}
+}
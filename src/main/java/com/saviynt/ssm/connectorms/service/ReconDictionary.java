@@ -0,0 +1,89 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ReconDictionary is the intern table of one recon : the values of low-cardinality columns (entitlement types,
+ * statuses, attribute names) and of the mapped properties built from them are kept once and shared by every row
+ * holding them, instead of one String per row.
+ * Each column or mapped property has its own dictionary of at most maxValues distinct values. A dictionary
+ * reaching maxValues belongs to a high-cardinality column (names, ids, emails) : it is dropped and the values of
+ * that column are no longer interned for the rest of the recon.
+ * Dictionaries are thread safe, rows of a recon may be read and mapped by several threads.
+ * The dictionary is created per recon (internMaxValues in ReconcileJSON, 0 to disable) and released with it.
+ */
+public final class ReconDictionary {
+
+	public static final int DEFAULT_MAX_VALUES = 1024;
+
+	private final int maxValues;
+	private final ConcurrentHashMap<String, Column> columns = new ConcurrentHashMap<String, Column>();
+	private final LongAdder interned = new LongAdder();
+
+	/**
+	 * @param maxValues the maximum number of distinct values kept per column
+	 */
+	public ReconDictionary(int maxValues) {
+		this.maxValues = maxValues;
+	}
+
+	/**
+	 * @param name the column label or the mapped property e.g. ACCOUNT_ENTITLEMENTS.ENTITLEMENTTYPE
+	 * @return the dictionary of the column, shared by every reader of the recon
+	 */
+	public Column column(String name) {
+		return columns.computeIfAbsent(name, k -> new Column());
+	}
+
+	/**
+	 * @return the number of values replaced by a value already held
+	 */
+	public long getInterned() {
+		return interned.sum();
+	}
+
+	/**
+	 * @return the number of columns whose values are interned
+	 */
+	public int getLowCardinalityColumns() {
+		int count = 0;
+		for (Column column : columns.values()) {
+			count += column.highCardinality ? 0 : 1;
+		}
+		return count;
+	}
+
+	/**
+	 * the dictionary of one column
+	 */
+	public final class Column {
+		private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+		private volatile boolean highCardinality;
+
+		private Column() {
+		}
+
+		/**
+		 * @param value a value of the column, may be null
+		 * @return the value held by the dictionary equal to value, or value itself
+		 */
+		public String intern(String value) {
+			if (value == null || highCardinality) {
+				return value;
+			}
+			String held = values.get(value);
+			if (held != null) {
+				interned.increment();
+				return held;
+			}
+			if (values.size() >= maxValues) {
+				highCardinality = true;
+				values.clear();
+				return value;
+			}
+			held = values.putIfAbsent(value, value);
+			return held != null ? held : value;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.saviynt.ssm.abstractConnector.exceptions.ConnectorException;
+
+/**
+ * ReconFetchStrategy is how the rows of the recon query are fetched from the target database, set with
+ * fetchStrategy in ReconcileJSON :
+ * stream   : rows are sent one by one over the connection (MySQL Connector/J fetch size Integer.MIN_VALUE),
+ *            the connection and the locks of the query are held until all rows are read, so notify() must
+ *            keep up with net_write_timeout. Never chosen by auto, it has to be set explicitly
+ * cursor   : rows are read through a server side cursor fetchSize rows at a time (default 1000), on MySQL this
+ *            needs useCursorFetch=true in the connection url or jdbc.recon.mysql.useCursorFetch=true in
+ *            databaseconfig.properties, which is only set on the recon connections
+ * buffered : the driver reads the whole result before the first row is returned, for small tables only
+ * paged    : the query is read in pages of pageSize rows ordered by pageColumn, every page starts after the last
+ *            pageColumn value of the previous one (keyset paging). pageColumn must be unique and not null.
+ *            The query must be a plain select of one table, a query with GROUP BY, DISTINCT, joins or
+ *            reading a view would be evaluated again for every page, it is read in one pass as with auto.
+ *            The last key of each notified page of an incremental recon is checkpointed and a failed recon
+ *            resumes after it, unless checkpoint is false in ReconcileJSON, see ReconCheckpoint.
+ * auto     : (default) cursor on MySQL when useCursorFetch is set (jdbc.recon.mysql.useCursorFetch=true in the
+ *            shipped databaseconfig.properties) and buffered otherwise, on other drivers a fetchSize hint
+ * MySQL Connector/J ignores a positive fetch size without useCursorFetch and buffers the whole table, so
+ * the driver is detected from the connection metadata before the strategy is applied.
+ */
+public final class ReconFetchStrategy {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReconFetchStrategy.class);
+
+	private static final int DEFAULT_FETCH_SIZE = 1000;
+
+	/**
+	 * the strategies of fetchStrategy
+	 */
+	public enum Mode {
+		AUTO, STREAM, CURSOR, BUFFERED, PAGED
+	}
+
+	private final Mode mode;
+	private final int fetchSize;
+	private final String pageColumn;
+	private final int pageSize;
+	private final boolean checkpoint;
+
+	private ReconFetchStrategy(Mode mode, int fetchSize, String pageColumn, int pageSize, boolean checkpoint) {
+		this.mode = mode;
+		this.fetchSize = fetchSize;
+		this.pageColumn = pageColumn;
+		this.pageSize = pageSize;
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * to read fetchStrategy, fetchSize, pageColumn, pageSize and checkpoint of ReconcileJSON
+	 *
+	 * @param reconConfig the parsed ReconcileJSON
+	 * @return the strategy
+	 * @throws ConnectorException when the settings are invalid
+	 */
+	public static ReconFetchStrategy fromConfig(Map<String, Object> reconConfig) {
+		Mode mode;
+		Object configured = reconConfig.get("fetchStrategy");
+		try {
+			mode = configured == null ? Mode.AUTO : Mode.valueOf(configured.toString().trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new ConnectorException("Invalid fetchStrategy " + configured
+					+ ", valid values are auto, stream, cursor, buffered and paged");
+		}
+		//a recon round trip reads many more rows than a provisioning batch, fetchSize does not follow jdbc.batch.size
+		int fetchSize = positive(reconConfig, "fetchSize", DEFAULT_FETCH_SIZE);
+		String pageColumn = reconConfig.get("pageColumn") != null ? reconConfig.get("pageColumn").toString() : null;
+		if (mode == Mode.PAGED && (pageColumn == null || pageColumn.trim().isEmpty())) {
+			throw new ConnectorException("fetchStrategy paged needs pageColumn in ReconcileJSON");
+		}
+		boolean checkpoint = reconConfig.get("checkpoint") == null
+				|| Boolean.parseBoolean(reconConfig.get("checkpoint").toString());
+		return new ReconFetchStrategy(mode, fetchSize, pageColumn, positive(reconConfig, "pageSize", fetchSize),
+				mode == Mode.PAGED && checkpoint);
+	}
+
+	private static int positive(Map<String, Object> reconConfig, String name, int defaultValue) {
+		Object configured = reconConfig.get(name);
+		if (configured == null) {
+			return defaultValue;
+		}
+		int value = Integer.parseInt(configured.toString().trim());
+		if (value <= 0) {
+			throw new ConnectorException(name + " must be positive in ReconcileJSON");
+		}
+		return value;
+	}
+
+	/**
+	 * @return the configured strategy
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the rows fetched per round trip for cursor fetch
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * @return the key column of paged fetch, null for the other strategies
+	 */
+	public String getPageColumn() {
+		return pageColumn;
+	}
+
+	/**
+	 * @return the rows per page of paged fetch
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return true when the pages of a paged fetch are checkpointed
+	 */
+	public boolean isCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @return the strategy without checkpoints of its pages
+	 */
+	public ReconFetchStrategy withoutCheckpoint() {
+		return checkpoint ? new ReconFetchStrategy(mode, fetchSize, pageColumn, pageSize, false) : this;
+	}
+
+	/**
+	 * to resolve the strategy for the driver of a connection and the recon query, auto is replaced by the best
+	 * strategy of the driver, paged by auto when the query cannot be read in pages
+	 *
+	 * @param con connection to the target system
+	 * @param query the recon query
+	 * @return the strategy to apply
+	 * @throws SQLException
+	 * @throws ConnectorException when the driver does not support the configured strategy
+	 */
+	public Mode resolve(Connection con, ReconQuery query) throws SQLException {
+		DatabaseMetaData metaData = con.getMetaData();
+		Mode mode = this.mode;
+		if (mode == Mode.PAGED && !isPageable(con, query)) {
+			logger.warn("fetchStrategy paged is not applied, the recon query is not a plain select of one table and "
+					+ "would be evaluated again for every page, it is read in one pass : " + query.getBaseQuery());
+			mode = Mode.AUTO;
+		}
+		if (!isMySql(metaData)) {
+			return mode == Mode.AUTO ? Mode.CURSOR : mode;
+		}
+		boolean cursorFetch = ConnectorSettings.getBoolean("jdbc.recon.mysql.useCursorFetch", false)
+				|| ConnectorSettings.getBoolean("jdbc.mysql.useCursorFetch", false)
+				|| String.valueOf(metaData.getURL()).toLowerCase(Locale.ROOT).contains("usecursorfetch=true");
+		if (mode == Mode.CURSOR && !cursorFetch) {
+			throw new ConnectorException("fetchStrategy cursor needs useCursorFetch=true in the connection url or "
+					+ "jdbc.recon.mysql.useCursorFetch=true in databaseconfig.properties, "
+					+ "otherwise MySQL Connector/J buffers the whole result");
+		}
+		if (mode == Mode.AUTO) {
+			return cursorFetch ? Mode.CURSOR : Mode.BUFFERED;
+		}
+		return mode;
+	}
+
+	/**
+	 * to set the fetch size of a recon statement for a resolved strategy
+	 *
+	 * @param con connection of the statement
+	 * @param stmt the recon statement, not yet executed
+	 * @param resolved the strategy returned by resolve()
+	 * @throws SQLException
+	 */
+	public void apply(Connection con, Statement stmt, Mode resolved) throws SQLException {
+		switch (resolved) {
+		case STREAM:
+			if (isMySql(con.getMetaData())) {
+				stmt.setFetchSize(Integer.MIN_VALUE);
+			} else {
+				//other drivers stream with a positive fetch size
+				stmt.setFetchSize(fetchSize);
+			}
+			break;
+		case CURSOR:
+			stmt.setFetchSize(fetchSize);
+			break;
+		case PAGED:
+			//a page is bounded by pageSize, it is read in one round trip
+			stmt.setFetchSize(pageSize);
+			break;
+		default:
+			break;
+		}
+		logger.debug("Recon fetch strategy " + resolved + " fetch size " + stmt.getFetchSize());
+	}
+
+	/**
+	 * a query is read in pages when it selects from one table, not from a view whose own query would be
+	 * evaluated again for every page
+	 */
+	private static boolean isPageable(Connection con, ReconQuery query) throws SQLException {
+		String table = query.getPageableTable();
+		if (table == null) {
+			return false;
+		}
+		table = table.replace("`", "").replace("\"", "");
+		int dot = table.lastIndexOf('.');
+		String catalog = dot > 0 ? table.substring(0, dot) : con.getCatalog();
+		String name = table.substring(dot + 1);
+		try (ResultSet rs = con.getMetaData().getTables(catalog, null, name, null)) {
+			while (rs.next()) {
+				String type = rs.getString("TABLE_TYPE");
+				if (name.equalsIgnoreCase(rs.getString("TABLE_NAME")) && type != null
+						&& type.toUpperCase(Locale.ROOT).contains("VIEW")) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isMySql(DatabaseMetaData metaData) throws SQLException {
+		String driverName = metaData.getDriverName();
+		return driverName != null && driverName.toLowerCase(Locale.ROOT).contains("mysql");
+	}
+}
@@ -0,0 +1,106 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ReconGroupingSink merges consecutive rows of the same account into one row (groupByProperty in ReconcileJSON).
+ * A recon query joining accounts to their entitlements returns one row per entitlement, each row repeating the
+ * account and attribute maps. Rows whose groupByProperty value (a mapped property e.g. ACCOUNTS.NAME) equals the
+ * value of the previous row are merged : the merged row holds every distinct map of the group once, so the
+ * account map is notified once followed by the list of its distinct entitlement and attribute maps
+ * [{ACCOUNTS.NAME=a}, {ACCOUNT_ENTITLEMENTS.ENTITLEMENT_VALUE=e1}, {ACCOUNT_ENTITLEMENTS.ENTITLEMENT_VALUE=e2}]
+ * Only consecutive rows are merged, the recon query must be ordered by the column of groupByProperty. Rows of
+ * an account that come apart (unordered query, partitioned recon) are notified as several rows, as without
+ * grouping. Rows without a groupByProperty value are handed over as they are.
+ * accept(), drain() and flush() are synchronized so that several readers can share one sink.
+ */
+public class ReconGroupingSink implements ReconRowSink {
+
+	private final ReconRowSink downstream;
+	private final String groupByProperty;
+	private Object groupKey;
+	private Set<Map<String, Object>> group;
+	private long groups;
+	private long rows;
+
+	/**
+	 * @param downstream the sink receiving the merged rows
+	 * @param groupByProperty the mapped property holding the account key e.g. ACCOUNTS.NAME
+	 */
+	public ReconGroupingSink(ReconRowSink downstream, String groupByProperty) {
+		this.downstream = downstream;
+		this.groupByProperty = groupByProperty.trim().toUpperCase();
+	}
+
+	@Override
+	public synchronized void accept(List<Map<String, Object>> row) throws Exception {
+		rows++;
+		Object key = key(row);
+		if (key == null) {
+			emit();
+			downstream.accept(row);
+			return;
+		}
+		if (!key.equals(groupKey)) {
+			emit();
+			groupKey = key;
+			group = new LinkedHashSet<Map<String, Object>>();
+		}
+		group.addAll(row);
+	}
+
+	/**
+	 * to hand over the open group and drain the downstream sink, a group read across a drain is notified in two
+	 * rows
+	 */
+	@Override
+	public synchronized void drain() throws Exception {
+		emit();
+		downstream.drain();
+	}
+
+	@Override
+	public synchronized void flush() throws Exception {
+		emit();
+		downstream.flush();
+	}
+
+	/**
+	 * @return the number of merged rows handed over
+	 */
+	public synchronized long getGroups() {
+		return groups;
+	}
+
+	/**
+	 * @return the number of rows accepted
+	 */
+	public synchronized long getRows() {
+		return rows;
+	}
+
+	private void emit() throws Exception {
+		if (group == null) {
+			return;
+		}
+		List<Map<String, Object>> merged = new ArrayList<Map<String, Object>>(group);
+		group = null;
+		groupKey = null;
+		groups++;
+		downstream.accept(merged);
+	}
+
+	private Object key(List<Map<String, Object>> row) {
+		for (Map<String, Object> values : row) {
+			Object key = values.get(groupByProperty);
+			if (key != null) {
+				return key;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,338 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ReconMapperPlan is the mapper of ReconcileJSON compiled once per recon.
+ * mapper sample : {'accounts':[{'saviyntproperty':'name','sourceproperty':'${accountName}'}],
+ *                  'account_entitlements':[{'saviyntproperty':'entitlementtype','sourceproperty':'${group}'}]}
+ * Output keys like ACCOUNTS.NAME are built once, and every sourceproperty is parsed into a TemplateExpression.
+ * bind() resolves the column references of simple expressions to column indexes of the recon result set, so
+ * that mapping a row does not go through Groovy unless the mapper holds real Groovy expressions.
+ * Bound to a ReconDictionary, the column values read and the mapped values built from them are interned, so that
+ * the rows of a recon share one String per distinct value of their low-cardinality columns.
+ */
+public final class ReconMapperPlan {
+
+	private final List<String> mapperKeys = new ArrayList<String>();
+	private final List<String[]> outputKeys = new ArrayList<String[]>();
+	private final List<TemplateExpression[]> expressions = new ArrayList<TemplateExpression[]>();
+
+	private ReconMapperPlan() {
+	}
+
+	/**
+	 * to compile the mapper of ReconcileJSON
+	 *
+	 * @param mapperMap the mapper, mapper key to list of saviyntproperty/sourceproperty maps
+	 * @return the compiled plan
+	 */
+	@SuppressWarnings("unchecked")
+	public static ReconMapperPlan compile(Map<String, Object> mapperMap) {
+		ReconMapperPlan plan = new ReconMapperPlan();
+		for (String maperKey : mapperMap.keySet()) {
+			List<Map<String, String>> valMap = (List<Map<String, String>>) mapperMap.get(maperKey);
+			String[] keys = new String[valMap.size()];
+			TemplateExpression[] values = new TemplateExpression[valMap.size()];
+			for (int i = 0; i < valMap.size(); i++) {
+				Map<String, String> columnPropertyMap = valMap.get(i);
+				keys[i] = maperKey.toUpperCase() + "." + columnPropertyMap.get("saviyntproperty").toUpperCase();
+				values[i] = TemplateExpression.compile(columnPropertyMap.get("sourceproperty"));
+			}
+			plan.mapperKeys.add(maperKey);
+			plan.outputKeys.add(keys);
+			plan.expressions.add(values);
+		}
+		return plan;
+	}
+
+	/**
+	 * to keep only the given mapper keys, e.g. ACCOUNT for the metadata sent back after createAccount
+	 *
+	 * @param mapperKey mapper key to keep, compared ignoring case
+	 * @return a plan with the entries of that mapper key only
+	 */
+	public ReconMapperPlan select(String mapperKey) {
+		ReconMapperPlan plan = new ReconMapperPlan();
+		for (int t = 0; t < mapperKeys.size(); t++) {
+			if (mapperKeys.get(t).equalsIgnoreCase(mapperKey)) {
+				plan.mapperKeys.add(mapperKeys.get(t));
+				plan.outputKeys.add(outputKeys.get(t));
+				plan.expressions.add(expressions.get(t));
+				break;
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * @return true when the plan has no mapper key
+	 */
+	public boolean isEmpty() {
+		return mapperKeys.isEmpty();
+	}
+
+	/**
+	 * to tell whether a column may be used by any expression of the plan
+	 *
+	 * @param label the column label
+	 * @return true when the column has to be fetched
+	 */
+	public boolean references(String label) {
+		for (TemplateExpression[] tableExpressions : expressions) {
+			for (TemplateExpression expression : tableExpressions) {
+				if (expression.mayReference(label)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * to bind the plan to the columns of a result set
+	 *
+	 * @param rsmd metadata of the recon result set
+	 * @return the plan bound to the result set columns
+	 * @throws SQLException
+	 */
+	public Bound bind(ResultSetMetaData rsmd) throws SQLException {
+		return bind(rsmd, null);
+	}
+
+	/**
+	 * to bind the plan to the columns of a result set, interning values with the dictionary of the recon
+	 *
+	 * @param rsmd metadata of the recon result set
+	 * @param dictionary the dictionary of the recon, null to keep every value as read
+	 * @return the plan bound to the result set columns
+	 * @throws SQLException
+	 */
+	public Bound bind(ResultSetMetaData rsmd, ReconDictionary dictionary) throws SQLException {
+		String[] labels = new String[rsmd.getColumnCount()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = rsmd.getColumnLabel(i + 1);
+		}
+		return new Bound(labels, dictionary);
+	}
+
+	/**
+	 * to bind the plan to column labels, e.g. the labels of the generated keys of an insert
+	 *
+	 * @param labels the column labels, map() takes the values in the same order
+	 * @return the plan bound to the labels
+	 */
+	public Bound bind(String[] labels) {
+		return new Bound(labels.clone(), null);
+	}
+
+	/**
+	 * the plan bound to the columns of one result set.
+	 * Only the columns referenced by the mapper are fetched, a Groovy expression keeps every column whose label
+	 * appears in its text. read() and map(values) reuse buffers, so they must only be called by the reader of the
+	 * Bound plan and the values returned by read() are only valid until the next call. Rows read with readCopy()
+	 * can be mapped on other threads with map(values, binding), each thread passing its own binding map.
+	 */
+	public final class Bound {
+		private final String[] labels;
+		/** indexes (0 based) of the columns to fetch */
+		private final int[] fetched;
+		/** column index (0 based) of each reference of each simple expression, null for Groovy expressions */
+		private final int[][][] slots;
+		/** output map capacity per mapper key so that the maps never resize */
+		private final int[] capacities;
+		private final boolean needsRowMap;
+		private final String[] buffer;
+		private final Map<String, Object> resultsetMap = new HashMap<String, Object>();
+		/** dictionary of each column, null when values are not interned */
+		private final ReconDictionary.Column[] columnValues;
+		/** dictionary of each mapped property, null for properties holding a column value as it is */
+		private final ReconDictionary.Column[][] mappedValues;
+
+		private Bound(String[] labels, ReconDictionary dictionary) {
+			int columnCount = labels.length;
+			this.labels = labels;
+			Map<String, Integer> indexes = new HashMap<String, Integer>();
+			for (int i = 0; i < columnCount; i++) {
+				indexes.putIfAbsent(labels[i], i);
+			}
+			boolean groovy = false;
+			slots = new int[expressions.size()][][];
+			capacities = new int[expressions.size()];
+			for (int t = 0; t < expressions.size(); t++) {
+				TemplateExpression[] tableExpressions = expressions.get(t);
+				slots[t] = new int[tableExpressions.length][];
+				capacities[t] = (int) (tableExpressions.length / 0.75f) + 1;
+				for (int e = 0; e < tableExpressions.length; e++) {
+					slots[t][e] = resolve(tableExpressions[e], indexes);
+					groovy |= slots[t][e] == null && tableExpressions[e].getTemplate() != null;
+				}
+			}
+			needsRowMap = groovy;
+
+			List<Integer> referenced = new ArrayList<Integer>();
+			for (Integer index : indexes.values()) {
+				if (references(labels[index])) {
+					referenced.add(index);
+				}
+			}
+			Collections.sort(referenced);
+			fetched = new int[referenced.size()];
+			for (int i = 0; i < fetched.length; i++) {
+				fetched[i] = referenced.get(i);
+			}
+			buffer = new String[columnCount];
+
+			if (dictionary != null) {
+				columnValues = new ReconDictionary.Column[columnCount];
+				for (int index : fetched) {
+					columnValues[index] = dictionary.column(labels[index]);
+				}
+				mappedValues = new ReconDictionary.Column[expressions.size()][];
+				for (int t = 0; t < expressions.size(); t++) {
+					TemplateExpression[] tableExpressions = expressions.get(t);
+					mappedValues[t] = new ReconDictionary.Column[tableExpressions.length];
+					for (int e = 0; e < tableExpressions.length; e++) {
+						if (slots[t][e] == null || !tableExpressions[e].isReference()) {
+							mappedValues[t][e] = dictionary.column(outputKeys.get(t)[e]);
+						}
+					}
+				}
+			} else {
+				columnValues = null;
+				mappedValues = null;
+			}
+		}
+
+		private int[] resolve(TemplateExpression expression, Map<String, Integer> indexes) {
+			if (!expression.isSimple()) {
+				return null;
+			}
+			List<String> references = expression.getReferences();
+			int[] columnSlots = new int[references.size()];
+			for (int i = 0; i < columnSlots.length; i++) {
+				Integer index = indexes.get(references.get(i));
+				if (index == null) {
+					// unknown column, let Groovy report it as it did before
+					return null;
+				}
+				columnSlots[i] = index;
+			}
+			return columnSlots;
+		}
+
+		/**
+		 * @return the number of columns of the result set
+		 */
+		public int getColumnCount() {
+			return labels.length;
+		}
+
+		/**
+		 * @return the number of columns fetched for each row
+		 */
+		public int getFetchedColumnCount() {
+			return fetched.length;
+		}
+
+		/**
+		 * @return the labels of the columns fetched for each row, in column order
+		 */
+		public List<String> getFetchedLabels() {
+			List<String> fetchedLabels = new ArrayList<String>(fetched.length);
+			for (int index : fetched) {
+				fetchedLabels.add(labels[index]);
+			}
+			return fetchedLabels;
+		}
+
+		/**
+		 * to read the referenced columns of the current row into the reusable row buffer
+		 *
+		 * @param rs the result set positioned on a row
+		 * @return the row buffer, valid until the next call
+		 * @throws SQLException
+		 */
+		public String[] read(ResultSet rs) throws SQLException {
+			for (int index : fetched) {
+				buffer[index] = value(rs, index);
+			}
+			return buffer;
+		}
+
+		/**
+		 * to read the referenced columns of the current row into a new array, for rows handed to other threads
+		 *
+		 * @param rs the result set positioned on a row
+		 * @return the column values of the row
+		 * @throws SQLException
+		 */
+		public String[] readCopy(ResultSet rs) throws SQLException {
+			String[] values = new String[labels.length];
+			for (int index : fetched) {
+				values[index] = value(rs, index);
+			}
+			return values;
+		}
+
+		private String value(ResultSet rs, int index) throws SQLException {
+			String value = rs.getString(index + 1);
+			return columnValues != null ? columnValues[index].intern(value) : value;
+		}
+
+		/**
+		 * to map one row with the mapper
+		 *
+		 * @param values the column values of the row
+		 * @return one map per mapper key e.g. [{ACCOUNTS.NAME=XXXX}, {ACCOUNT_ATTRIBUTES.ATTRIBUTE_NAME=XXXX}]
+		 * @throws Exception when a Groovy expression fails
+		 */
+		public List<Map<String, Object>> map(String[] values) throws Exception {
+			return map(values, resultsetMap);
+		}
+
+		/**
+		 * to map one row with the mapper using the given map as the binding of Groovy expressions
+		 *
+		 * @param values the column values of the row
+		 * @param binding a map owned by the calling thread, reused across rows
+		 * @return one map per mapper key e.g. [{ACCOUNTS.NAME=XXXX}, {ACCOUNT_ATTRIBUTES.ATTRIBUTE_NAME=XXXX}]
+		 * @throws Exception when a Groovy expression fails
+		 */
+		public List<Map<String, Object>> map(String[] values, Map<String, Object> binding) throws Exception {
+			Map<String, Object> rowMap = needsRowMap ? rowMap(values, binding) : null;
+			List<Map<String, Object>> tempList = new ArrayList<Map<String, Object>>(expressions.size());
+			for (int t = 0; t < expressions.size(); t++) {
+				String[] keys = outputKeys.get(t);
+				TemplateExpression[] tableExpressions = expressions.get(t);
+				Map<String, Object> oneRow = new HashMap<String, Object>(capacities[t]);
+				for (int e = 0; e < tableExpressions.length; e++) {
+					int[] columnSlots = slots[t][e];
+					String value = columnSlots != null ? tableExpressions[e].evaluate(values, columnSlots)
+							: TemplateCache.render(tableExpressions[e].getTemplate(), rowMap);
+					oneRow.put(keys[e], mappedValues != null && mappedValues[t][e] != null
+							? mappedValues[t][e].intern(value) : value);
+				}
+				tempList.add(oneRow);
+			}
+			return tempList;
+		}
+
+		/**
+		 * the binding of Groovy expressions, reused across rows of the same thread
+		 */
+		private Map<String, Object> rowMap(String[] values, Map<String, Object> binding) {
+			for (int index : fetched) {
+				binding.put(labels[index], values[index]);
+			}
+			return binding;
+		}
+	}
+}
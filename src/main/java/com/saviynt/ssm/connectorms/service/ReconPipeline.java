@@ -0,0 +1,235 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.saviynt.ssm.abstractConnector.exceptions.ConnectorException;
+
+/**
+ * ReconPipeline splits recon into stages connected by bounded queues, so that reading the result set, mapping the
+ * rows and notifying SSM overlap instead of running one after the other on the reading thread :
+ * reader   : the JDBC thread only copies the referenced columns of each row and queues them in batches
+ * mappers  : mapperThreads workers map the batches with the mapper, each with its own Groovy binding
+ * notifier : one thread hands the mapped rows to the downstream sink (ReconBatchNotifier) in read order
+ * When the mappers fall behind the reader blocks on the full queue, and when notify() is slow the mappers do.
+ * The reader also blocks while queueSize + mapperThreads batches are submitted and not yet notified, so the
+ * batches the notifier holds back until the oldest one is mapped stay bounded when mappers finish out of order. The first failure of any stage stops the pipeline and is thrown
+ * to the reader and by drain() and flush().
+ * Enabled with mapperThreads in ReconcileJSON, pipelineQueueSize sets the batches each queue holds (default 16).
+ */
+public final class ReconPipeline implements ReconRowSink, AutoCloseable {
+
+	/** rows per batch handed between stages */
+	private static final int BATCH_ROWS = 256;
+
+	private final ReconRowSink downstream;
+	private final BlockingQueue<Batch> mapQueue;
+	private final BlockingQueue<Batch> notifyQueue;
+	private final ExecutorService threads;
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final Object submitLock = new Object();
+	/** sequence of the next batch, guarded by submitLock */
+	private long nextSequence;
+	/** batches submitted and not yet notified, guarded by itself */
+	private final long[] pending = new long[1];
+	/** the most batches submitted and not yet notified */
+	private final int window;
+
+	/**
+	 * @param downstream the sink receiving the mapped rows, called by the notifier thread only
+	 * @param mapperThreads number of mapper workers
+	 * @param queueSize number of batches each queue holds
+	 */
+	public ReconPipeline(ReconRowSink downstream, int mapperThreads, int queueSize) {
+		this.downstream = downstream;
+		this.mapQueue = new ArrayBlockingQueue<Batch>(Math.max(1, queueSize));
+		this.notifyQueue = new ArrayBlockingQueue<Batch>(Math.max(1, queueSize));
+		this.window = Math.max(1, queueSize) + mapperThreads;
+		this.threads = Executors.newFixedThreadPool(mapperThreads + 1, runnable -> {
+			Thread thread = new Thread(runnable, "MySQLDBExampleConnector-recon-pipeline");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int i = 0; i < mapperThreads; i++) {
+			threads.execute(this::mapBatches);
+		}
+		threads.execute(this::notifyBatches);
+	}
+
+	@Override
+	public RowReader reader(ReconMapperPlan.Bound boundPlan) {
+		return new RowReader() {
+			private List<String[]> rows = new ArrayList<String[]>(BATCH_ROWS);
+
+			@Override
+			public void read(ResultSet rs) throws Exception {
+				rows.add(boundPlan.readCopy(rs));
+				if (rows.size() >= BATCH_ROWS) {
+					finish();
+				}
+			}
+
+			@Override
+			public void finish() throws Exception {
+				if (!rows.isEmpty()) {
+					submit(new Batch(boundPlan, rows, null));
+					rows = new ArrayList<String[]>(BATCH_ROWS);
+				}
+			}
+		};
+	}
+
+	/**
+	 * to queue a row that is already mapped, it is notified in order with the mapped batches
+	 */
+	@Override
+	public void accept(List<Map<String, Object>> row) throws Exception {
+		submit(new Batch(null, null, Collections.singletonList(row)));
+	}
+
+	/**
+	 * to wait until all queued rows are handed to the downstream sink, then drain it
+	 */
+	@Override
+	public void drain() throws Exception {
+		awaitPending();
+		downstream.drain();
+	}
+
+	/**
+	 * to wait until all queued rows are handed to the downstream sink, then flush it
+	 */
+	@Override
+	public void flush() throws Exception {
+		awaitPending();
+		downstream.flush();
+	}
+
+	/**
+	 * to stop the pipeline threads
+	 */
+	@Override
+	public void close() {
+		threads.shutdownNow();
+	}
+
+	private void submit(Batch batch) throws Exception {
+		synchronized (submitLock) {
+			checkFailure();
+			batch.sequence = nextSequence++;
+			synchronized (pending) {
+				while (pending[0] >= window) {
+					checkFailure();
+					pending.wait(100);
+				}
+				pending[0]++;
+			}
+			while (!mapQueue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		}
+	}
+
+	private void awaitPending() throws Exception {
+		synchronized (pending) {
+			while (pending[0] > 0 && failure.get() == null) {
+				pending.wait(100);
+			}
+		}
+		checkFailure();
+	}
+
+	private void checkFailure() throws Exception {
+		Throwable cause = failure.get();
+		if (cause instanceof Exception) {
+			throw (Exception) cause;
+		}
+		if (cause != null) {
+			throw new ConnectorException(cause);
+		}
+	}
+
+	private void fail(Throwable cause) {
+		failure.compareAndSet(null, cause);
+		synchronized (pending) {
+			pending.notifyAll();
+		}
+	}
+
+	private void mapBatches() {
+		Map<String, Object> binding = new HashMap<String, Object>();
+		try {
+			while (true) {
+				Batch batch = mapQueue.take();
+				if (batch.rows != null && failure.get() == null) {
+					try {
+						List<List<Map<String, Object>>> mapped = new ArrayList<List<Map<String, Object>>>(batch.rows.size());
+						for (String[] values : batch.rows) {
+							mapped.add(batch.boundPlan.map(values, binding));
+						}
+						batch.mapped = mapped;
+						batch.rows = null;
+					} catch (Throwable t) {
+						fail(t);
+					}
+				}
+				notifyQueue.put(batch);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void notifyBatches() {
+		Map<Long, Batch> waiting = new HashMap<Long, Batch>();
+		long expected = 0;
+		try {
+			while (true) {
+				Batch batch = notifyQueue.take();
+				waiting.put(batch.sequence, batch);
+				//mappers finish batches out of order, rows are notified in the order they were read
+				while ((batch = waiting.remove(expected)) != null) {
+					expected++;
+					if (failure.get() == null && batch.mapped != null) {
+						try {
+							for (List<Map<String, Object>> row : batch.mapped) {
+								downstream.accept(row);
+							}
+						} catch (Throwable t) {
+							fail(t);
+						}
+					}
+					synchronized (pending) {
+						pending[0]--;
+						pending.notifyAll();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Batch {
+		private final ReconMapperPlan.Bound boundPlan;
+		private List<String[]> rows;
+		private List<List<Map<String, Object>>> mapped;
+		private long sequence;
+
+		private Batch(ReconMapperPlan.Bound boundPlan, List<String[]> rows, List<List<Map<String, Object>>> mapped) {
+			this.boundPlan = boundPlan;
+			this.rows = rows;
+			this.mapped = mapped;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import com.saviynt.ssm.abstractConnector.exceptions.MissingKeyException;
+
+/**
+ * ReconPlan is the recon configuration of one importable object, parsed once per configuration of the endpoint.
+ * ACCOUNT    : ReconcileJSON with its whole mapper. When the mapper also maps users (mapper key users), one scan
+ *              of the recon query produces the accounts, account_attributes, account_entitlements and users of
+ *              every row.
+ * USER       : UserReconcileJSON, or else ReconcileJSON with the users mapper only.
+ * ENTITLEMENT: EntitlementReconcileJSON, or else ReconcileJSON with the mapper keys whose target table holds
+ *              entitlements, i.e. contains ENTITLEMENT (e.g. account_entitlements, entitlement_values).
+ * The mapper keys read by the USER and ENTITLEMENT imports from ReconcileJSON can be listed with userMapperKeys
+ * and entitlementMapperKeys (comma separated) in ReconcileJSON instead.
+ * With combinedRecon set to true in ReconcileJSON the USER and ENTITLEMENT imports without their own JSON are
+ * skipped, their rows were already notified by the ACCOUNT import. Without it an import whose mapper selection
+ * is empty fails, rather than notifying nothing.
+ * The projection of the recon query (see ReconProjection) is learned by the first recon of the plan, unless
+ * projection is set to false in the recon JSON.
+ */
+public final class ReconPlan {
+
+	public static final String ACCOUNT = "ACCOUNT";
+	public static final String USER = "USER";
+	public static final String ENTITLEMENT = "ENTITLEMENT";
+
+	private final String importableObject;
+	private final String source;
+	private final Map<String, Object> config;
+	private final ReconMapperPlan mapperPlan;
+	private final boolean skipped;
+	private volatile ReconFetchStrategy fetchStrategy;
+	private volatile ReconProjection projection;
+	private volatile boolean projectionLearned;
+
+	private ReconPlan(String importableObject, String source, Map<String, Object> config, ReconMapperPlan mapperPlan,
+			boolean skipped) {
+		this.importableObject = importableObject;
+		this.source = source;
+		this.config = config;
+		this.mapperPlan = mapperPlan;
+		this.skipped = skipped;
+	}
+
+	/**
+	 * to parse the recon configuration of an importable object
+	 *
+	 * @param importableObject ACCOUNT, USER or ENTITLEMENT
+	 * @param sources the text of each xxxJSON attribute of the endpoint
+	 * @return the plan
+	 */
+	@SuppressWarnings("unchecked")
+	static ReconPlan compile(String importableObject, Map<String, String> sources) {
+		String ownKey = ownKey(importableObject);
+		String key = ownKey != null && sources.containsKey(ownKey) ? ownKey : "ReconcileJSON";
+		String text = sources.get(key);
+		if (text == null) {
+			throw new MissingKeyException(key + " is missing");
+		}
+		Map<String, Object> config = Collections.unmodifiableMap(new JSONObject(text).toMap());
+		Object mapper = config.get("mapper");
+		if (!(mapper instanceof Map)) {
+			throw new MissingKeyException("mapper is missing in " + key);
+		}
+		Map<String, Object> mapperMap = (Map<String, Object>) mapper;
+		boolean shared = ownKey != null && !key.equals(ownKey);
+		boolean combined = isTrue(config.get("combinedRecon"));
+		if (shared) {
+			//the object is read with the accounts query, only its own part of the mapper is evaluated
+			Object configuredKeys = config.get(importableObject.toLowerCase() + "MapperKeys");
+			List<String> mapperKeys = new ArrayList<String>();
+			if (configuredKeys != null) {
+				for (String mapperKey : configuredKeys.toString().split(",")) {
+					if (!mapperKey.trim().isEmpty()) {
+						mapperKeys.add(mapperKey.trim().toLowerCase());
+					}
+				}
+			}
+			Map<String, Object> selected = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, Object> entry : mapperMap.entrySet()) {
+				if (configuredKeys != null ? mapperKeys.contains(entry.getKey().toLowerCase())
+						: belongsTo(importableObject, entry.getKey())) {
+					selected.put(entry.getKey(), entry.getValue());
+				}
+			}
+			if (selected.isEmpty() && !combined) {
+				throw new MissingKeyException("No mapper key of " + key + " is read by the " + importableObject
+						+ " recon, set " + ownKey + " or " + importableObject.toLowerCase() + "MapperKeys in " + key);
+			}
+			mapperMap = selected;
+		}
+		boolean skipped = shared && combined;
+		return new ReconPlan(importableObject, key, config, ReconMapperPlan.compile(mapperMap), skipped);
+	}
+
+	private static String ownKey(String importableObject) {
+		if (USER.equals(importableObject)) {
+			return "UserReconcileJSON";
+		}
+		if (ENTITLEMENT.equals(importableObject)) {
+			return "EntitlementReconcileJSON";
+		}
+		return null;
+	}
+
+	private static boolean belongsTo(String importableObject, String mapperKey) {
+		String key = mapperKey.toLowerCase();
+		if (USER.equals(importableObject)) {
+			return key.equals("users") || key.equals("user");
+		}
+		//the target table of the mapped properties e.g. ACCOUNT_ENTITLEMENTS.ENTITLEMENT_VALUE
+		return key.contains("entitlement");
+	}
+
+	private static boolean isTrue(Object value) {
+		return value != null && Boolean.parseBoolean(value.toString());
+	}
+
+	/**
+	 * @return ACCOUNT, USER or ENTITLEMENT
+	 */
+	public String getImportableObject() {
+		return importableObject;
+	}
+
+	/**
+	 * @return the JSON attribute the plan was parsed from
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return true when the import has nothing to read, its rows come with the ACCOUNT import
+	 */
+	public boolean isSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return the parsed recon JSON, it must not be modified
+	 */
+	public Map<String, Object> getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return the compiled mapper of the importable object
+	 */
+	public ReconMapperPlan getMapperPlan() {
+		return mapperPlan;
+	}
+
+	/**
+	 * @return the fetch strategy of the recon JSON
+	 */
+	public ReconFetchStrategy getFetchStrategy() {
+		ReconFetchStrategy strategy = fetchStrategy;
+		if (strategy == null) {
+			strategy = ReconFetchStrategy.fromConfig(config);
+			fetchStrategy = strategy;
+		}
+		return strategy;
+	}
+
+	/**
+	 * Number of recon rows to notify at once in streaming recon, taken from batchSize in the recon JSON
+	 * and otherwise from jdbc.batch.size in databaseconfig.properties
+	 *
+	 * @return the number of rows per notify() call
+	 */
+	public int getChunkSize() {
+		Object configured = config.get("batchSize");
+		if (configured != null && Integer.parseInt(configured.toString()) > 0) {
+			return Integer.parseInt(configured.toString());
+		}
+		int batchSize = ConnectorSettings.getBatchSize();
+		return batchSize > 0 ? batchSize : 1000;
+	}
+
+	/**
+	 * @return the deadline of the recon, timeoutSeconds in the recon JSON and otherwise jdbc.recon.timeoutSeconds in
+	 *         databaseconfig.properties, 0 for no limit
+	 */
+	public long getTimeoutMillis() {
+		Object configured = config.get("timeoutSeconds");
+		long seconds = configured != null ? Long.parseLong(configured.toString().trim())
+				: ConnectorSettings.getInt("jdbc.recon.timeoutSeconds", 0);
+		return TimeUnit.SECONDS.toMillis(Math.max(0, seconds));
+	}
+
+	/**
+	 * the name of the recon in checkpoints, snapshots and metrics : the endpoint for ACCOUNT so that existing files
+	 * are kept, the endpoint and the importable object otherwise
+	 *
+	 * @param endpointId the endpoint of the recon
+	 * @return the recon name
+	 */
+	public String reconName(String endpointId) {
+		return ACCOUNT.equals(importableObject) ? endpointId : endpointId + "_" + importableObject;
+	}
+
+	/**
+	 * to get the projection of the recon query, learned on the first call
+	 *
+	 * @param con connection to the target system
+	 * @param query the query of the recon JSON
+	 * @return the projection, null when the query is read as it is
+	 * @throws SQLException
+	 */
+	public ReconProjection getProjection(Connection con, String query) throws SQLException {
+		if (!projectionLearned) {
+			if (config.get("projection") == null || isTrue(config.get("projection"))) {
+				projection = ReconProjection.analyze(con, query, mapperPlan, requiredColumns());
+			}
+			projectionLearned = true;
+		}
+		return projection;
+	}
+
+	/**
+	 * @return the projection learned by the last recon, null when none
+	 */
+	public ReconProjection getProjection() {
+		return projection;
+	}
+
+	/**
+	 * to learn the projection again on the next recon, e.g. after a failed recon as the table may have changed
+	 */
+	public void resetProjection() {
+		projectionLearned = false;
+		projection = null;
+	}
+
+	/**
+	 * the columns filtered, partitioned or paged on by the connector, read even when the mapper does not use them
+	 */
+	private List<String> requiredColumns() {
+		List<String> columns = new ArrayList<String>();
+		if ("incremental".equalsIgnoreCase(String.valueOf(config.get("reconType")))) {
+			columns.add(config.get("incrementalColumn") != null ? config.get("incrementalColumn").toString()
+					: "updatedate");
+		}
+		for (String key : new String[] { "partitionColumn", "pageColumn" }) {
+			if (config.get(key) != null) {
+				columns.add(config.get(key).toString().trim());
+			}
+		}
+		return columns;
+	}
+}
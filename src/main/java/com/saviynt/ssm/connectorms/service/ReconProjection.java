@@ -0,0 +1,135 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ReconProjection is the projection pushdown of a recon query : a query reading every column of one table
+ * select * from accountrecon where ...
+ * is rewritten to read only the columns used by the mapper and by the filters and paging of the connector
+ * select "ACCOUNTNAME", "ENTITLEMENT", "UPDATEDATE" from accountrecon where ...
+ * so the columns no expression uses are neither read by the database nor sent to the connector.
+ * The columns of the table are taken from the metadata of the query, a column is kept when the mapper
+ * references it (see ReconMapperPlan.references) or when it is one of the required columns.
+ * Queries selecting anything else than * from a single table (joins, subqueries in the from clause, aliases,
+ * select lists) are read as they are.
+ * The saving of a recon is estimated from the declared size of the skipped columns.
+ */
+public final class ReconProjection {
+
+	private static final Pattern SIMPLE_SELECT = Pattern
+			.compile("(?is)^select\\s+\\*\\s+(from\\s+[^\\s,()]+(?:\\s+(?:where|order\\s+by|limit)\\s.*)?)$");
+	/** declared sizes of LOB columns are not representative, their estimate is capped */
+	private static final int MAX_COLUMN_BYTES = 65535;
+
+	private final String selectList;
+	private final List<String> columns;
+	private final int skippedColumns;
+	private final long skippedBytesPerRow;
+
+	private ReconProjection(String selectList, List<String> columns, int skippedColumns, long skippedBytesPerRow) {
+		this.selectList = selectList;
+		this.columns = columns;
+		this.skippedColumns = skippedColumns;
+		this.skippedBytesPerRow = skippedBytesPerRow;
+	}
+
+	/**
+	 * to learn the projection of a recon query
+	 *
+	 * @param con connection to the target system
+	 * @param query the query of the recon JSON
+	 * @param mapperPlan the compiled mapper of the recon
+	 * @param requiredColumns the columns read by the connector itself e.g. incrementalColumn, pageColumn
+	 * @return the projection, null when the query cannot be rewritten or every column is used
+	 * @throws SQLException
+	 */
+	public static ReconProjection analyze(Connection con, String query, ReconMapperPlan mapperPlan,
+			Collection<String> requiredColumns) throws SQLException {
+		if (!SIMPLE_SELECT.matcher(query.trim()).matches()) {
+			return null;
+		}
+		Set<String> required = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		required.addAll(requiredColumns);
+		String quote = con.getMetaData().getIdentifierQuoteString();
+		quote = quote == null || quote.trim().isEmpty() ? "" : quote.trim();
+		List<String> columns = new ArrayList<String>();
+		StringBuilder selectList = new StringBuilder();
+		int skippedColumns = 0;
+		long skippedBytesPerRow = 0;
+		try (PreparedStatement stmt = con.prepareStatement(query)) {
+			OperationDeadline.apply(stmt);
+			ResultSetMetaData rsmd = stmt.getMetaData();
+			ResultSet rs = null;
+			if (rsmd == null) {
+				//the driver only describes executed queries, one row is enough
+				stmt.setMaxRows(1);
+				rs = stmt.executeQuery();
+				rsmd = rs.getMetaData();
+			}
+			for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+				String label = rsmd.getColumnLabel(i);
+				if (mapperPlan.references(label) || required.contains(label)) {
+					columns.add(label);
+					selectList.append(selectList.length() > 0 ? ", " : "").append(quote).append(label).append(quote);
+				} else {
+					skippedColumns++;
+					skippedBytesPerRow += Math.min(Math.max(rsmd.getColumnDisplaySize(i), 0), MAX_COLUMN_BYTES);
+				}
+			}
+			if (rs != null) {
+				rs.close();
+			}
+		}
+		if (skippedColumns == 0) {
+			return null;
+		}
+		return new ReconProjection(columns.isEmpty() ? "1" : selectList.toString(),
+				Collections.unmodifiableList(columns), skippedColumns, skippedBytesPerRow);
+	}
+
+	/**
+	 * @param query the query of the recon JSON
+	 * @return the query reading the projected columns only
+	 */
+	public String rewrite(String query) {
+		Matcher matcher = SIMPLE_SELECT.matcher(query.trim());
+		if (!matcher.matches()) {
+			return query;
+		}
+		return "select " + selectList + " " + matcher.group(1);
+	}
+
+	/**
+	 * @return the columns read by the rewritten query
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return the number of columns the rewritten query does not read
+	 */
+	public int getSkippedColumns() {
+		return skippedColumns;
+	}
+
+	/**
+	 * @param rows the rows read by a recon
+	 * @return the estimated bytes the recon did not read
+	 */
+	public long estimateBytesSaved(long rows) {
+		return skippedBytesPerRow * rows;
+	}
+}
@@ -0,0 +1,194 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ReconQuery is the recon query of ReconcileJSON together with the filters added by the connector.
+ * Filters are never appended to the query text itself, which may already have its own WHERE, GROUP BY
+ * or ORDER BY clauses. Instead the query is wrapped as a derived table
+ * select * from ( query ) recon_src where filter1 and filter2
+ * and the filter values are bound as parameters of a PreparedStatement.
+ * For keyset paging the filtered query can also be ordered and limited
+ * select * from ( query ) recon_src where filter1 order by id limit 1000
+ * Only a plain select of one table is merged into the paging query by the database, a query with GROUP BY,
+ * DISTINCT, UNION, LIMIT or a derived table of its own is materialized again for every page, see
+ * getPageableTable().
+ */
+public class ReconQuery {
+
+	/** a select of one table with an optional alias, where clause and order by */
+	private static final Pattern SINGLE_TABLE = Pattern.compile("(?is)^select\\s+.+?\\s+from\\s+([^\\s,()]+)"
+			+ "(?:\\s+(?:as\\s+)?(?!(?:where|order)\\b)\\w+)?(?:\\s+(?:where|order\\s+by)\\s.*)?$");
+	/** the clauses the database cannot merge into the paging query */
+	private static final Pattern NOT_MERGEABLE = Pattern
+			.compile("(?is)\\b(?:distinct|group\\s+by|having|union|join|limit|offset)\\b|\\(\\s*select\\b");
+
+	private final String baseQuery;
+	private final List<String> conditions = new ArrayList<String>();
+	private final List<Object> params = new ArrayList<Object>();
+	private String orderBy;
+	private int limit;
+
+	/**
+	 * @param baseQuery the query from ReconcileJSON
+	 */
+	public ReconQuery(String baseQuery) {
+		String query = baseQuery.trim();
+		while (query.endsWith(";")) {
+			query = query.substring(0, query.length() - 1).trim();
+		}
+		this.baseQuery = query;
+	}
+
+	/**
+	 * to add a filter, the filter refers to columns of the recon query and uses ? for its values
+	 *
+	 * @param condition the filter e.g. updatedate >= ?
+	 * @param values the values bound to the ? of the filter
+	 * @return this query
+	 */
+	public ReconQuery where(String condition, Object... values) {
+		conditions.add(condition);
+		Collections.addAll(params, values);
+		return this;
+	}
+
+	/**
+	 * to order the rows of the filtered query
+	 *
+	 * @param orderBy the order by list e.g. id
+	 * @return this query
+	 */
+	public ReconQuery orderBy(String orderBy) {
+		this.orderBy = orderBy;
+		return this;
+	}
+
+	/**
+	 * to read at most limit rows of the filtered query
+	 *
+	 * @param limit the maximum number of rows, 0 for no limit
+	 * @return this query
+	 */
+	public ReconQuery limit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * to copy this query with its filters, e.g. to add a different partition filter to each copy
+	 *
+	 * @return a new query with the same base query and filters
+	 */
+	public ReconQuery copy() {
+		ReconQuery copy = new ReconQuery(baseQuery);
+		copy.conditions.addAll(conditions);
+		copy.params.addAll(params);
+		copy.orderBy = orderBy;
+		copy.limit = limit;
+		return copy;
+	}
+
+	/**
+	 * @return the query from ReconcileJSON without any filter
+	 */
+	public String getBaseQuery() {
+		return baseQuery;
+	}
+
+	/**
+	 * to check that the base query can be read in pages : every page is the base query filtered on the last key,
+	 * which costs one index range scan only when the database merges the base query into the page query
+	 *
+	 * @return the table read by the base query, null when it is not a plain select of one table
+	 */
+	public String getPageableTable() {
+		Matcher matcher = SINGLE_TABLE.matcher(baseQuery);
+		if (!matcher.matches() || NOT_MERGEABLE.matcher(baseQuery).find()) {
+			return null;
+		}
+		return matcher.group(1);
+	}
+
+	/**
+	 * @return the SQL to execute
+	 */
+	public String getSql() {
+		return getSql("*");
+	}
+
+	/**
+	 * @param selectList the select list applied to the filtered query, e.g. min(id), max(id)
+	 * @return the SQL selecting selectList from the filtered query
+	 */
+	public String getSql(String selectList) {
+		if (conditions.isEmpty() && "*".equals(selectList) && orderBy == null && limit <= 0) {
+			return baseQuery;
+		}
+		StringBuilder sql = new StringBuilder("select ").append(selectList).append(" from (").append(baseQuery)
+				.append(") recon_src");
+		if (!conditions.isEmpty()) {
+			sql.append(" where ").append(String.join(" and ", conditions));
+		}
+		if (orderBy != null) {
+			sql.append(" order by ").append(orderBy);
+		}
+		if (limit > 0) {
+			sql.append(" limit ").append(limit);
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * @return the values bound to the filters, in order
+	 */
+	public List<Object> getParams() {
+		return Collections.unmodifiableList(params);
+	}
+
+	/**
+	 * to prepare a forward only, read only statement for the query with all filter values bound
+	 *
+	 * @param con connection to the target system
+	 * @return the prepared statement, to be closed by the caller
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(Connection con) throws SQLException {
+		return prepare(con, "*");
+	}
+
+	/**
+	 * to prepare a forward only, read only statement selecting selectList from the filtered query
+	 *
+	 * @param con connection to the target system
+	 * @param selectList the select list applied to the filtered query
+	 * @return the prepared statement, to be closed by the caller
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(Connection con, String selectList) throws SQLException {
+		PreparedStatement stmt = con.prepareStatement(getSql(selectList), ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		try {
+			for (int i = 0; i < params.size(); i++) {
+				stmt.setObject(i + 1, params.get(i));
+			}
+		} catch (SQLException e) {
+			stmt.close();
+			throw e;
+		}
+		return stmt;
+	}
+
+	@Override
+	public String toString() {
+		return getSql() + " " + params;
+	}
+}
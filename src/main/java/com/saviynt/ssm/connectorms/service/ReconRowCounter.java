@@ -0,0 +1,49 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ReconRowCounter counts the rows the mapper built for a recon, before they are grouped, filtered and notified.
+ * It is placed right below the mapping step : under ReconPipeline its rows come from the mapper threads,
+ * otherwise from the reading threads, so the count is kept in a LongAdder. Rows the mapper left empty are handed
+ * over but not counted as mapped.
+ */
+public class ReconRowCounter implements ReconRowSink {
+
+	private final ReconRowSink downstream;
+	private final LongAdder mapped = new LongAdder();
+
+	/**
+	 * @param downstream the sink receiving the counted rows
+	 */
+	public ReconRowCounter(ReconRowSink downstream) {
+		this.downstream = downstream;
+	}
+
+	@Override
+	public void accept(List<Map<String, Object>> row) throws Exception {
+		if (row != null && !row.isEmpty()) {
+			mapped.increment();
+		}
+		downstream.accept(row);
+	}
+
+	@Override
+	public void flush() throws Exception {
+		downstream.flush();
+	}
+
+	@Override
+	public void drain() throws Exception {
+		downstream.drain();
+	}
+
+	/**
+	 * @return the rows mapped so far
+	 */
+	public long getMappedRows() {
+		return mapped.sum();
+	}
+}
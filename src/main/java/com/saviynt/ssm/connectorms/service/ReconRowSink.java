@@ -0,0 +1,69 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ReconRowSink receives reconciled rows while the recon query is still being read.
+ * A row is the list of maps built from the mapper for one result set row, e.g.
+ * [{ACCOUNTS.NAME=XXXX}, {ACCOUNT_ATTRIBUTES.ATTRIBUTE_NAME=XXXX}, {ACCOUNT_ENTITLEMENTS.ENTITLEMENTTYPE=XXXX}]
+ */
+public interface ReconRowSink {
+
+	/**
+	 * to accept one mapped row
+	 *
+	 * @param row the mapped row
+	 * @throws Exception when the row cannot be processed
+	 */
+	void accept(List<Map<String, Object>> row) throws Exception;
+
+	/**
+	 * to push any buffered rows downstream, called once the recon query has been fully read
+	 *
+	 * @throws Exception when the buffered rows cannot be processed
+	 */
+	void flush() throws Exception;
+
+	/**
+	 * to push the rows accepted so far downstream while the recon query is still being read, e.g. before a
+	 * checkpoint records them as notified. Unlike flush() it does nothing when no row is buffered.
+	 *
+	 * @throws Exception when the buffered rows cannot be processed
+	 */
+	void drain() throws Exception;
+
+	/**
+	 * to get the reader handing the rows of a result set to this sink. The default reader maps each row on the
+	 * reading thread, sinks that map rows on other threads return their own reader.
+	 *
+	 * @param boundPlan the mapper bound to the result set, used by one reader only
+	 * @return the reader
+	 */
+	default RowReader reader(ReconMapperPlan.Bound boundPlan) {
+		return rs -> accept(boundPlan.map(boundPlan.read(rs)));
+	}
+
+	/**
+	 * RowReader hands the rows of one result set to a sink
+	 */
+	interface RowReader {
+
+		/**
+		 * to hand over the current row
+		 *
+		 * @param rs the result set positioned on a row
+		 * @throws Exception when the row cannot be processed
+		 */
+		void read(ResultSet rs) throws Exception;
+
+		/**
+		 * to hand over the rows the reader still holds, called when the result set is fully read
+		 *
+		 * @throws Exception when the rows cannot be processed
+		 */
+		default void finish() throws Exception {
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReconSnapshot is the state of the accounts of an endpoint at its last recon : for every account key the 64 bit
+ * hash of its mapped row, so that a changed-only recon can tell new and modified accounts from unchanged ones
+ * without keeping the previous rows.
+ * The snapshot is an open addressing hash table in a memory mapped file, one 24 byte slot per account
+ * keyHash (8) rowHash (8) generation (4) unused (4)
+ * after a 64 byte header. The account keys themselves are not kept, only their hash.
+ * Every recon is a generation : each account read is stamped with the generation, and once a full recon
+ * completes the accounts with an older generation are dropped from the snapshot. A recon that fails keeps its
+ * generation, so a resumed recon does not drop the accounts of the pages it skips.
+ * Files are kept in recon.snapshot.dir of databaseconfig.properties (default MySQLDBExampleConnector-snapshots
+ * in java.io.tmpdir). A snapshot is used by one recon at a time and is not thread safe : open() takes an
+ * exclusive FileLock on its lock file, held until close(), so a second recon of the same endpoint, in this
+ * process or another one sharing the directory, fails instead of writing to the mapped file concurrently.
+ */
+public final class ReconSnapshot implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReconSnapshot.class);
+
+	private static final int MAGIC = 0x52534E50;
+	private static final int VERSION = 2;
+	private static final int HEADER = 64;
+	private static final int SLOT = 24;
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int MAX_CAPACITY = 1 << 25;
+
+	//header offsets
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_CAPACITY = 8;
+	private static final int H_SIZE = 12;
+	private static final int H_GENERATION = 16;
+	private static final int H_COMPLETE = 20;
+
+	//slot offsets
+	private static final int S_KEY_HASH = 0;
+	private static final int S_ROW_HASH = 8;
+	private static final int S_GENERATION = 16;
+
+	private final Path directory;
+	private final String name;
+	private FileChannel lockChannel;
+	private FileLock lock;
+	private FileChannel tableChannel;
+	private MappedByteBuffer table;
+	private int capacity;
+	private int mask;
+
+	private ReconSnapshot(Path directory, String name) {
+		this.directory = directory;
+		this.name = name;
+	}
+
+	/**
+	 * to open the snapshot of an endpoint and start a recon generation, a new one unless the previous recon
+	 * did not complete
+	 *
+	 * @param endpointId the endpoint of the recon
+	 * @return the snapshot, to be closed by the caller
+	 * @throws IOException when the snapshot files cannot be read or created, or another recon holds the snapshot
+	 */
+	public static ReconSnapshot open(String endpointId) throws IOException {
+		Path directory = directory();
+		Files.createDirectories(directory);
+		ReconSnapshot snapshot = new ReconSnapshot(directory,
+				"recon-" + String.valueOf(endpointId).replaceAll("[^A-Za-z0-9_.]", "_"));
+		snapshot.lock();
+		try {
+			snapshot.load();
+		} catch (IOException | RuntimeException e) {
+			snapshot.unlock();
+			throw e;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * to lock the snapshot for this recon, the lock is taken on a file of its own as the table file is replaced
+	 * when it is rebuilt
+	 */
+	private void lock() throws IOException {
+		lockChannel = FileChannel.open(directory.resolve(name + ".lock"), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		try {
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			lockChannel.close();
+			throw new IOException("Recon snapshot " + name + " is in use by another recon of the endpoint");
+		}
+	}
+
+	private void unlock() throws IOException {
+		try {
+			lock.release();
+		} finally {
+			lockChannel.close();
+		}
+	}
+
+	private void load() throws IOException {
+		Path tableFile = tableFile();
+		boolean exists = Files.exists(tableFile) && Files.size(tableFile) >= HEADER;
+		tableChannel = FileChannel.open(tableFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		if (exists) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			tableChannel.read(header, 0);
+			int fileCapacity = header.getInt(H_CAPACITY);
+			if (header.getInt(H_MAGIC) == MAGIC && header.getInt(H_VERSION) == VERSION
+					&& Integer.bitCount(fileCapacity) == 1
+					&& tableChannel.size() >= HEADER + (long) fileCapacity * SLOT) {
+				map(fileCapacity);
+			} else {
+				logger.warn("Ignoring unreadable recon snapshot " + tableFile);
+				exists = false;
+			}
+		}
+		if (!exists) {
+			tableChannel.truncate(0);
+			map(INITIAL_CAPACITY);
+			for (int i = 0; i < HEADER; i += 8) {
+				table.putLong(i, 0L);
+			}
+			table.putInt(H_MAGIC, MAGIC);
+			table.putInt(H_VERSION, VERSION);
+			table.putInt(H_CAPACITY, capacity);
+			table.putInt(H_COMPLETE, 1);
+		}
+		if (table.getInt(H_COMPLETE) == 1) {
+			table.putInt(H_GENERATION, table.getInt(H_GENERATION) + 1);
+			table.putInt(H_COMPLETE, 0);
+		}
+		logger.info("Recon snapshot " + name + " has " + size() + " accounts, generation " + generation());
+	}
+
+	private void map(int newCapacity) throws IOException {
+		capacity = newCapacity;
+		mask = newCapacity - 1;
+		table = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) newCapacity * SLOT);
+	}
+
+	/**
+	 * @return the number of accounts in the snapshot
+	 */
+	public int size() {
+		return table.getInt(H_SIZE);
+	}
+
+	/**
+	 * @return the generation of the running recon
+	 */
+	public int generation() {
+		return table.getInt(H_GENERATION);
+	}
+
+	/**
+	 * to find an account and stamp it with the current generation
+	 *
+	 * @param keyHash the hash of the account key
+	 * @return the row hash of the account at its last recon, or null for a new account
+	 */
+	public Long touch(long keyHash) {
+		int slot = find(keyHash);
+		if (slot < 0) {
+			return null;
+		}
+		table.putInt(position(slot) + S_GENERATION, generation());
+		return table.getLong(position(slot) + S_ROW_HASH);
+	}
+
+	/**
+	 * to record the row hash of a notified account
+	 *
+	 * @param keyHash the hash of the account key
+	 * @param rowHash the hash of the notified row
+	 * @throws IOException when the table cannot be grown
+	 */
+	public void put(long keyHash, long rowHash) throws IOException {
+		int slot = find(keyHash);
+		if (slot < 0) {
+			if ((size() + 1) * 10L > capacity * 7L) {
+				rebuild(Math.min(capacity * 2, MAX_CAPACITY));
+			}
+			if (size() + 1 >= capacity) {
+				throw new IOException("Recon snapshot " + name + " is full with " + size() + " accounts");
+			}
+			slot = insert(table, mask, keyHash);
+			table.putInt(H_SIZE, size() + 1);
+		}
+		table.putLong(position(slot) + S_ROW_HASH, rowHash);
+		table.putInt(position(slot) + S_GENERATION, generation());
+	}
+
+	/**
+	 * to remove the accounts that were not read by the running recon
+	 *
+	 * @return the number of accounts removed
+	 */
+	public int removeStale() {
+		int generation = generation();
+		int removed = 0;
+		int slot = 0;
+		while (slot < capacity) {
+			int position = position(slot);
+			if (table.getLong(position + S_KEY_HASH) != 0 && table.getInt(position + S_GENERATION) != generation) {
+				remove(slot);
+				removed++;
+				//the slot now holds a shifted entry, which is checked again
+			} else {
+				slot++;
+			}
+		}
+		table.putInt(H_SIZE, size() - removed);
+		return removed;
+	}
+
+	/**
+	 * to mark the running recon complete, the next recon starts a new generation
+	 *
+	 * @throws IOException when the table cannot be written
+	 */
+	public void complete() throws IOException {
+		table.putInt(H_COMPLETE, 1);
+		force();
+	}
+
+	/**
+	 * to write the changes of the mapped table to disk
+	 *
+	 * @throws IOException when the table cannot be written
+	 */
+	public void force() throws IOException {
+		table.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			force();
+		} finally {
+			try {
+				tableChannel.close();
+			} finally {
+				unlock();
+			}
+		}
+	}
+
+	/**
+	 * to hash an account key, 0 is reserved for empty slots
+	 *
+	 * @param key the account key
+	 * @return the 64 bit hash of the key
+	 */
+	public static long keyHash(String key) {
+		long hash = hash(key, FNV_OFFSET);
+		return hash != 0 ? hash : 1;
+	}
+
+	/**
+	 * to hash text with 64 bit FNV-1a
+	 *
+	 * @param value the text to hash
+	 * @param hash the hash so far, FNV_OFFSET to start
+	 * @return the hash of the text appended to the previous hash
+	 */
+	public static long hash(CharSequence value, long hash) {
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/** the initial value of hash() */
+	public static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private int find(long keyHash) {
+		for (int slot = home(keyHash, mask);; slot = (slot + 1) & mask) {
+			long slotHash = table.getLong(position(slot) + S_KEY_HASH);
+			if (slotHash == keyHash) {
+				return slot;
+			}
+			if (slotHash == 0) {
+				return -1;
+			}
+		}
+	}
+
+	private static int insert(MappedByteBuffer table, int mask, long keyHash) {
+		int slot = home(keyHash, mask);
+		while (table.getLong(position(slot) + S_KEY_HASH) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table.putLong(position(slot) + S_KEY_HASH, keyHash);
+		return slot;
+	}
+
+	/**
+	 * to empty a slot of the linear probing table, shifting back the entries probed past it
+	 */
+	private void remove(int slot) {
+		int hole = slot;
+		int next = slot;
+		while (true) {
+			next = (next + 1) & mask;
+			long nextHash = table.getLong(position(next) + S_KEY_HASH);
+			if (nextHash == 0) {
+				break;
+			}
+			int home = home(nextHash, mask);
+			//the entry can move to the hole when its home is not cyclically between the hole and its slot
+			if (hole <= next ? (home <= hole || home > next) : (home <= hole && home > next)) {
+				copySlot(next, hole);
+				hole = next;
+			}
+		}
+		for (int i = 0; i < SLOT; i += 8) {
+			table.putLong(position(hole) + i, 0L);
+		}
+	}
+
+	private void copySlot(int from, int to) {
+		for (int i = 0; i < SLOT; i += 8) {
+			table.putLong(position(to) + i, table.getLong(position(from) + i));
+		}
+	}
+
+	/**
+	 * to copy the table to a new capacity
+	 */
+	private void rebuild(int newCapacity) throws IOException {
+		Path tableTemp = directory.resolve(name + ".snapshot.tmp");
+		try (FileChannel newTableChannel = FileChannel.open(tableTemp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer newTable = newTableChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+					HEADER + (long) newCapacity * SLOT);
+			for (int slot = 0; slot < capacity; slot++) {
+				int position = position(slot);
+				long keyHash = table.getLong(position + S_KEY_HASH);
+				if (keyHash == 0) {
+					continue;
+				}
+				int newSlot = insert(newTable, newCapacity - 1, keyHash);
+				newTable.putLong(position(newSlot) + S_ROW_HASH, table.getLong(position + S_ROW_HASH));
+				newTable.putInt(position(newSlot) + S_GENERATION, table.getInt(position + S_GENERATION));
+			}
+			for (int i = 0; i < HEADER; i += 8) {
+				newTable.putLong(i, table.getLong(i));
+			}
+			newTable.putInt(H_CAPACITY, newCapacity);
+			newTable.force();
+		}
+		tableChannel.close();
+		Files.move(tableTemp, tableFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		tableChannel = FileChannel.open(tableFile(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		map(newCapacity);
+		logger.debug("Recon snapshot " + name + " rebuilt with capacity " + newCapacity);
+	}
+
+	private static int home(long keyHash, int mask) {
+		long mixed = keyHash * 0x9E3779B97F4A7C15L;
+		return (int) (mixed >>> 32) & mask;
+	}
+
+	private static int position(int slot) {
+		return HEADER + slot * SLOT;
+	}
+
+	private Path tableFile() {
+		return directory.resolve(name + ".snapshot");
+	}
+
+	private static Path directory() {
+		return Paths.get(ConnectorSettings.getString("recon.snapshot.dir",
+				Paths.get(System.getProperty("java.io.tmpdir"), "MySQLDBExampleConnector-snapshots").toString()));
+	}
+}
@@ -0,0 +1,296 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ReplicaRouter sends the reads of the connector to the read replicas of an endpoint so that long recon scans do
+ * not load the primary serving the provisioning writes.
+ * The replicas are given by the optional replicaUrl connection attribute, one url or a JSON array of urls
+ * ["jdbc:mysql://replica1:3306/db","jdbc:mysql://replica2:3306/db"], connected with the username and password
+ * of the primary. Reads are spread over the replicas in turn.
+ * Before it is used a replica is checked to replicate with a lag of at most jdbc.replica.maxLagSeconds, the check
+ * is kept jdbc.replica.lagCheckSeconds. MySQL replicas are checked with SHOW REPLICA STATUS (SHOW SLAVE STATUS
+ * before 8.0.22), other databases with jdbc.replica.lagQuery returning the lag in seconds, or not at all when it
+ * is not set. A MySQL server without replica status does not replicate and is not used, unless
+ * jdbc.replica.allowNonReplica is true, e.g. for the reader endpoint of an Aurora cluster whose readers share the
+ * storage of the writer (or set jdbc.replica.lagQuery for it). When no replica is reachable and in sync the
+ * reads go to the primary.
+ * Writes, and the reads following them such as the read back of a created account, always use the primary.
+ */
+public final class ReplicaRouter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplicaRouter.class);
+
+	private static final int MAX_ROUTERS = 256;
+	private static final ConcurrentHashMap<String, ReplicaRouter> ROUTERS = new ConcurrentHashMap<String, ReplicaRouter>();
+
+	private static final long MAX_LAG_SECONDS = ConnectorSettings.getInt("jdbc.replica.maxLagSeconds", 60);
+	private static final long LAG_CHECK_NANOS = TimeUnit.SECONDS
+			.toNanos(ConnectorSettings.getInt("jdbc.replica.lagCheckSeconds", 30));
+	private static final String LAG_QUERY = ConnectorSettings.getString("jdbc.replica.lagQuery", null);
+	private static final boolean ALLOW_NON_REPLICA = ConnectorSettings.getBoolean("jdbc.replica.allowNonReplica", false);
+
+	private final String endpoint;
+	private final String source;
+	private final List<Replica> replicas;
+	private final AtomicInteger next = new AtomicInteger();
+	private final LongAdder replicaReads = new LongAdder();
+	private final LongAdder primaryFallbacks = new LongAdder();
+
+	private ReplicaRouter(String endpoint, String source) {
+		this.endpoint = endpoint;
+		this.source = source;
+		List<Replica> parsed = new ArrayList<Replica>();
+		for (String url : parse(source)) {
+			parsed.add(new Replica(url));
+		}
+		this.replicas = Collections.unmodifiableList(parsed);
+	}
+
+	/**
+	 * @param data the data map of a call
+	 * @return the router of the endpoint of the call
+	 */
+	public static ReplicaRouter forData(Map<String, Object> data) {
+		String endpoint = ConnectorConfigPlan.endpointKey(data);
+		String source = data.get("replicaUrl") != null ? data.get("replicaUrl").toString().trim() : "";
+		ReplicaRouter router = ROUTERS.get(endpoint);
+		if (router == null || !router.source.equals(source)) {
+			if (ROUTERS.size() >= MAX_ROUTERS) {
+				ROUTERS.clear();
+			}
+			router = new ReplicaRouter(endpoint, source);
+			ROUTERS.put(endpoint, router);
+		}
+		return router;
+	}
+
+	private static List<String> parse(String source) {
+		List<String> urls = new ArrayList<String>();
+		if (source.startsWith("[")) {
+			JSONArray array = new JSONArray(source);
+			for (int i = 0; i < array.length(); i++) {
+				String url = array.optString(i, "").trim();
+				if (!url.isEmpty()) {
+					urls.add(url);
+				}
+			}
+		} else if (!source.isEmpty()) {
+			urls.add(source);
+		}
+		return urls;
+	}
+
+	/**
+	 * to choose the connection attributes of a read
+	 *
+	 * @param data the data map of the call, holding the connection attributes of the primary
+	 * @param operation the operation e.g. ACCOUNT recon, for the logs
+	 * @return the route of the read, to the first replica in turn in sync with the primary, otherwise to the
+	 *         primary
+	 */
+	public Route route(Map<String, Object> data, String operation) {
+		int count = replicas.size();
+		int first = count > 0 ? Math.floorMod(next.getAndIncrement(), count) : 0;
+		for (int i = 0; i < count; i++) {
+			Replica replica = replicas.get((first + i) % count);
+			if (replica.isInSync(data)) {
+				replicaReads.increment();
+				Map<String, Object> replicaData = new HashMap<String, Object>(data);
+				replicaData.put("url", replica.url);
+				logger.info(operation + " reads from replica " + (replicas.indexOf(replica) + 1) + " of endpoint "
+						+ endpoint + ", lag " + replica.lagSeconds + " seconds");
+				return new Route(replicaData, replica);
+			}
+		}
+		if (count > 0) {
+			logger.info(operation + " reads from the primary of endpoint " + endpoint + ", no replica is in sync");
+		}
+		primaryFallbacks.increment();
+		return new Route(data, null);
+	}
+
+	/**
+	 * @param data the data map of the call, holding the connection attributes of the primary
+	 * @return the route of a read that must see the writes of the primary
+	 */
+	public static Route primary(Map<String, Object> data) {
+		return new Route(data, null);
+	}
+
+	/**
+	 * @return the state of the replicas of every endpoint :
+	 *         {endpoint={replicas=.., inSync=.., replicaReads=.., primaryFallbacks=..}}
+	 */
+	public static Map<String, Object> snapshot() {
+		Map<String, Object> endpoints = new TreeMap<String, Object>();
+		for (ReplicaRouter router : ROUTERS.values()) {
+			if (router.replicas.isEmpty()) {
+				continue;
+			}
+			int inSync = 0;
+			for (Replica replica : router.replicas) {
+				inSync += replica.inSync ? 1 : 0;
+			}
+			Map<String, Object> stats = new TreeMap<String, Object>();
+			stats.put("replicas", router.replicas.size());
+			stats.put("inSync", inSync);
+			stats.put("replicaReads", router.replicaReads.sum());
+			stats.put("primaryFallbacks", router.primaryFallbacks.sum());
+			endpoints.put(router.endpoint, stats);
+		}
+		return endpoints;
+	}
+
+	/**
+	 * one replica of the endpoint with the outcome of its last lag check
+	 */
+	private static final class Replica {
+		private final String url;
+		private volatile boolean inSync;
+		private volatile long lagSeconds;
+		/** System.nanoTime() of the last check, 0 before the first one */
+		private volatile long checkedAt;
+
+		private Replica(String url) {
+			this.url = url;
+		}
+
+		private boolean isInSync(Map<String, Object> data) {
+			long now = System.nanoTime();
+			if (checkedAt == 0 || now - checkedAt >= LAG_CHECK_NANOS) {
+				synchronized (this) {
+					if (checkedAt == 0 || now - checkedAt >= LAG_CHECK_NANOS) {
+						check(data);
+						checkedAt = System.nanoTime();
+					}
+				}
+			}
+			return inSync;
+		}
+
+		private void check(Map<String, Object> data) {
+			Map<String, Object> replicaData = new HashMap<String, Object>(data);
+			replicaData.put("url", url);
+			try (Connection con = ConnectionPoolManager.getInstance().getConnection(replicaData)) {
+				Long lag = lagSeconds(con, String.valueOf(data.get("drivername")));
+				inSync = lag != null && lag <= MAX_LAG_SECONDS;
+				lagSeconds = lag != null ? lag : -1;
+				if (!inSync) {
+					logger.info("Replica " + url + " is not used, "
+							+ (lag == null ? "it does not replicate" : "its lag is " + lag + " seconds"));
+				}
+			} catch (Exception e) {
+				inSync = false;
+				lagSeconds = -1;
+				logger.info("Replica " + url + " is not used, its lag could not be checked " + e.getMessage());
+			}
+		}
+
+		/**
+		 * the lag of the replica in seconds, 0 when it cannot be measured, null when it does not replicate
+		 */
+		private Long lagSeconds(Connection con, String drivername) throws SQLException {
+			if (LAG_QUERY != null) {
+				try (Statement stmt = con.createStatement()) {
+					OperationDeadline.apply(stmt);
+					ResultSet rs = stmt.executeQuery(LAG_QUERY);
+					if (!rs.next()) {
+						return null;
+					}
+					Object lag = rs.getObject(1);
+					return lag != null ? Long.valueOf((long) Math.ceil(Double.parseDouble(lag.toString()))) : null;
+				}
+			}
+			if (!drivername.toLowerCase().contains("mysql") && !drivername.toLowerCase().contains("mariadb")) {
+				return 0L;
+			}
+			try {
+				return replicaStatus(con, "SHOW REPLICA STATUS", "Seconds_Behind_Source");
+			} catch (SQLException e) {
+				return replicaStatus(con, "SHOW SLAVE STATUS", "Seconds_Behind_Master");
+			}
+		}
+
+		private Long replicaStatus(Connection con, String query, String column) throws SQLException {
+			try (Statement stmt = con.createStatement()) {
+				OperationDeadline.apply(stmt);
+				ResultSet rs = stmt.executeQuery(query);
+				if (!rs.next()) {
+					//not a replica : a standalone server or a primary, or a reader sharing the storage of the writer
+					return ALLOW_NON_REPLICA ? Long.valueOf(0L) : null;
+				}
+				ResultSetMetaData rsmd = rs.getMetaData();
+				for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+					if (column.equalsIgnoreCase(rsmd.getColumnLabel(i))) {
+						long lag = rs.getLong(i);
+						//null while the replication threads are stopped
+						return rs.wasNull() ? null : lag;
+					}
+				}
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * the connection attributes chosen for a read
+	 */
+	public static final class Route {
+		private final Map<String, Object> data;
+		private final Replica replica;
+
+		private Route(Map<String, Object> data, Replica replica) {
+			this.data = data;
+			this.replica = replica;
+		}
+
+		/**
+		 * @return the connection attributes to read with
+		 */
+		public Map<String, Object> getData() {
+			return data;
+		}
+
+		/**
+		 * @return true when the read goes to a replica
+		 */
+		public boolean isReplica() {
+			return replica != null;
+		}
+
+		/**
+		 * @return the largest lag the replica may have, 0 for the primary
+		 */
+		public long getMaxLagMillis() {
+			return replica != null ? TimeUnit.SECONDS.toMillis(MAX_LAG_SECONDS) : 0;
+		}
+
+		/**
+		 * to check the replica again before its next read, after a read from it failed
+		 */
+		public void failed() {
+			if (replica != null) {
+				replica.checkedAt = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+import com.saviynt.ssm.abstractConnector.utility.GroovyService;
+
+import groovy.text.Template;
+
+/**
+ * TemplateCache renders the same templates as GroovyService.convertTemplateToString() but compiles each
+ * distinct template text only once. GroovyService compiles a new Groovy class on every call, which costs
+ * class generation and metaspace for every provisioning query and every mapped recon value.
+ *
+ * The cache is bounded by template.cache.maxSize in databaseconfig.properties (default 512), when it is
+ * full an arbitrary entry is evicted. Compiled templates are thread safe, each rendering creates its own script instance.
+ */
+public final class TemplateCache {
+
+	private static final TemplateCache INSTANCE = new TemplateCache(
+			Math.max(1, ConnectorSettings.getInt("template.cache.maxSize", 512)));
+
+	private final int maxSize;
+	private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private TemplateCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * to get the shared template cache
+	 *
+	 * @return the TemplateCache
+	 */
+	public static TemplateCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * to render a template with the given binding, same as GroovyService.convertTemplateToString()
+	 *
+	 * @param template the template text e.g. insert into accounts (name) values ('${ACCOUNTNAME}')
+	 * @param binding the values referred by the template
+	 * @return the rendered string or null when template is null
+	 * @throws Exception when the template cannot be compiled or rendered
+	 */
+	public static String render(String template, Map<String, Object> binding) throws Exception {
+		if (template == null) {
+			return null;
+		}
+		StringWriter writer = new StringWriter();
+		INSTANCE.compile(template).make(binding).writeTo(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * to get the compiled template for the template text, compiling it on a cache miss
+	 *
+	 * @param template the template text
+	 * @return the compiled template
+	 * @throws Exception when the template cannot be compiled
+	 */
+	public Template compile(String template) throws Exception {
+		Template compiled = templates.get(template);
+		if (compiled != null) {
+			hits.increment();
+			return compiled;
+		}
+		misses.increment();
+		compiled = GroovyService.SIMPLE_TEMPLATE_ENGINE.createTemplate(template);
+		if (templates.size() >= maxSize) {
+			Iterator<String> iterator = templates.keySet().iterator();
+			if (iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+				evictions.increment();
+			}
+		}
+		Template existing = templates.putIfAbsent(template, compiled);
+		return existing != null ? existing : compiled;
+	}
+
+	/**
+	 * @return number of lookups served from the cache
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of lookups that compiled a template
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return number of templates evicted because the cache was full
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return number of compiled templates currently cached
+	 */
+	public int size() {
+		return templates.size();
+	}
+}
@@ -0,0 +1,231 @@
+package com.saviynt.ssm.connectorms.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TemplateExpression is a Groovy template of the connector JSON (e.g. a mapper sourceproperty) parsed once.
+ * Templates made only of literal text and plain ${name} references, like ${accountName} or ${firstname}.${lastname},
+ * are simple : they can be evaluated natively by concatenating the literals with the referenced values, which gives
+ * the same string as GroovyService.convertTemplateToString() (a null value is rendered as null).
+ * Any other template (expressions like ${name.toUpperCase()}, $name, <% %> scriptlets, escapes) is not simple and
+ * must be rendered by Groovy through TemplateCache.
+ */
+public final class TemplateExpression {
+
+	/** names that are not plain binding lookups in a Groovy template script */
+	private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList("out", "binding", "metaClass",
+			"class", "this", "super", "null", "true", "false", "in", "as", "def", "new", "instanceof", "it",
+			"assert", "if", "else", "for", "while", "return", "switch", "case", "default", "try", "catch", "finally",
+			"throw", "import", "package", "trait", "var"));
+
+	private final String template;
+	private final boolean simple;
+	/** literal text around the references, literals[i] precedes references[i] */
+	private final String[] literals;
+	private final String[] references;
+
+	private TemplateExpression(String template, boolean simple, String[] literals, String[] references) {
+		this.template = template;
+		this.simple = simple;
+		this.literals = literals;
+		this.references = references;
+	}
+
+	/**
+	 * to parse a template
+	 *
+	 * @param template the template text, may be null
+	 * @return the parsed template
+	 */
+	public static TemplateExpression compile(String template) {
+		if (template == null || template.indexOf('\\') >= 0 || template.indexOf('\r') >= 0
+				|| template.contains("<%")) {
+			return groovy(template);
+		}
+		List<String> literals = new ArrayList<String>();
+		List<String> references = new ArrayList<String>();
+		int start = 0;
+		int dollar;
+		while ((dollar = template.indexOf('$', start)) >= 0) {
+			if (dollar + 1 >= template.length() || template.charAt(dollar + 1) != '{') {
+				return groovy(template);
+			}
+			int close = template.indexOf('}', dollar + 2);
+			if (close < 0) {
+				return groovy(template);
+			}
+			String name = template.substring(dollar + 2, close).trim();
+			if (!isIdentifier(name)) {
+				return groovy(template);
+			}
+			literals.add(template.substring(start, dollar));
+			references.add(name);
+			start = close + 1;
+		}
+		literals.add(template.substring(start));
+		return new TemplateExpression(template, true, literals.toArray(new String[0]),
+				references.toArray(new String[0]));
+	}
+
+	private static TemplateExpression groovy(String template) {
+		return new TemplateExpression(template, false, null, null);
+	}
+
+	private static boolean isIdentifier(String name) {
+		if (name.isEmpty() || RESERVED.contains(name) || !Character.isJavaIdentifierStart(name.charAt(0))
+				|| name.charAt(0) == '$') {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!Character.isJavaIdentifierPart(c) || c == '$') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the template text
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return true when the template can be evaluated without Groovy
+	 */
+	public boolean isSimple() {
+		return simple;
+	}
+
+	/**
+	 * @return true when the template is a single reference e.g. ${name}, its value is the referenced value
+	 */
+	public boolean isReference() {
+		return simple && references.length == 1 && literals[0].isEmpty() && literals[1].isEmpty();
+	}
+
+	/**
+	 * @return the names referenced by a simple template, in order of appearance
+	 */
+	public List<String> getReferences() {
+		return simple ? Collections.unmodifiableList(Arrays.asList(references)) : Collections.<String>emptyList();
+	}
+
+	/**
+	 * to evaluate a simple template with the values of its references
+	 *
+	 * @param values values[i] is the value of getReferences().get(i)
+	 * @return the rendered string
+	 */
+	public String evaluate(Object[] values) {
+		if (references.length == 1 && literals[0].isEmpty() && literals[1].isEmpty()) {
+			return String.valueOf(values[0]);
+		}
+		StringBuilder builder = new StringBuilder(template.length() + 16);
+		for (int i = 0; i < references.length; i++) {
+			builder.append(literals[i]).append(values[i]);
+		}
+		return builder.append(literals[references.length]).toString();
+	}
+
+	/**
+	 * to evaluate a simple template with the values of a row, without copying the referenced values
+	 *
+	 * @param row the row values
+	 * @param slots slots[i] is the index in row of the value of getReferences().get(i)
+	 * @return the rendered string
+	 */
+	public String evaluate(String[] row, int[] slots) {
+		if (references.length == 1 && literals[0].isEmpty() && literals[1].isEmpty()) {
+			return String.valueOf(row[slots[0]]);
+		}
+		StringBuilder builder = new StringBuilder(template.length() + 16);
+		for (int i = 0; i < references.length; i++) {
+			builder.append(literals[i]).append(row[slots[i]]);
+		}
+		return builder.append(literals[references.length]).toString();
+	}
+
+	/**
+	 * to evaluate the template with a binding map e.g. the data map of a provisioning call.
+	 * A simple template whose references are all in the binding with scalar values (strings, numbers, booleans or null)
+	 * is evaluated natively, otherwise it is rendered by Groovy, which formats collections differently from toString().
+	 *
+	 * @param binding the values referred by the template
+	 * @return the rendered string or null when the template is null
+	 * @throws Exception when Groovy fails to render the template
+	 */
+	public String evaluate(Map<String, Object> binding) throws Exception {
+		if (!simple) {
+			return TemplateCache.render(template, binding);
+		}
+		Object[] values = new Object[references.length];
+		for (int i = 0; i < references.length; i++) {
+			Object value = binding.get(references[i]);
+			if (value == null ? !binding.containsKey(references[i]) : !isScalar(value)) {
+				return TemplateCache.render(template, binding);
+			}
+			values[i] = value;
+		}
+		return evaluate(values);
+	}
+
+	private static boolean isScalar(Object value) {
+		return value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+				|| value instanceof Character;
+	}
+
+	/**
+	 * to get the value of the template as a bind parameter. A template made of a single ${name} reference
+	 * gives the bound value itself (keeping its type and null), any other template gives its rendered string.
+	 *
+	 * @param binding the values referred by the template
+	 * @return the parameter value
+	 * @throws Exception when Groovy fails to render the template
+	 */
+	public Object value(Map<String, Object> binding) throws Exception {
+		if (simple && references.length == 1 && literals[0].isEmpty() && literals[1].isEmpty()
+				&& binding.containsKey(references[0])) {
+			return binding.get(references[0]);
+		}
+		return evaluate(binding);
+	}
+
+	/**
+	 * to tell whether a name may be used by the template. For a simple template this is an exact reference,
+	 * for a Groovy template any occurrence of the name as a word of the template text.
+	 *
+	 * @param name a binding name e.g. a column label
+	 * @return true when the template may read the name
+	 */
+	public boolean mayReference(String name) {
+		if (template == null || name.isEmpty()) {
+			return false;
+		}
+		if (simple) {
+			return Arrays.asList(references).contains(name);
+		}
+		int from = 0;
+		int found;
+		while ((found = template.indexOf(name, from)) >= 0) {
+			int end = found + name.length();
+			boolean startsWord = found == 0 || !Character.isJavaIdentifierPart(template.charAt(found - 1))
+					|| template.charAt(found - 1) == '$';
+			boolean endsWord = end == template.length() || !Character.isJavaIdentifierPart(template.charAt(end))
+					|| template.charAt(end) == '$';
+			if (startsWord && endsWord) {
+				return true;
+			}
+			from = found + 1;
+		}
+		return false;
+	}
+}